@@ -1,9 +1,15 @@
 package nl.vu.cs.cn;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
 
 import nl.vu.cs.cn.IP.IpAddress;
+import nl.vu.cs.cn.tcp.OnWritableListener;
 import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+import nl.vu.cs.cn.tcp.WriteFuture;
 import nl.vu.cs.cn.tcp.segment.RetransmissionSegment;
 import nl.vu.cs.cn.tcp.segment.Segment;
 import nl.vu.cs.cn.tcp.segment.SegmentHandler;
@@ -16,6 +22,7 @@ import nl.vu.cs.cn.tcp.segment.SegmentUtil;
 public class TCP {
 
     private static final short CLIENT_LOCAL_PORT = 3110;    // local port used by client
+    private static final int FILE_MAP_SIZE = 1024 * 1024;   // size of the file regions mapped by sendFile()
 
     private String TAG = "TCP";
 
@@ -24,6 +31,8 @@ public class TCP {
     protected TransmissionControlBlock tcb;
 
     private boolean sendIssued;
+    private volatile int soTimeout;         // timeout of read() and accept() in ms, 0 if none
+    private volatile int connectTimeout;    // timeout of connect() in ms, 0 if none
 
     protected SegmentReceiver segmentReceiver;
     protected SegmentHandler segmentHandler;
@@ -84,6 +93,21 @@ public class TCP {
      * @return
      */
     private int send(byte[] buf, int offset, int len) {
+        return send(new ByteBuffer[]{ ByteBuffer.wrap(buf, offset, len) });
+    }
+
+    /**
+     * Send the remaining bytes of the buffers, in order. Blocks until all data has been
+     * copied into the send buffer.
+     * @param srcs
+     * @return the number of bytes written or -1 if an error occurs.
+     */
+    private int send(ByteBuffer[] srcs) {
+        int len = 0;
+        for(ByteBuffer src : srcs){
+            len += src.remaining();
+        }
+
         switch (tcb.getState()) {
             case CLOSED:
                 Log.e(TAG, "Error in send(): connection does not exist");
@@ -110,51 +134,101 @@ public class TCP {
                 return -1;
             case ESTABLISHED:
             case CLOSE_WAIT:
-                // Send data to receiver (segmentize where necessary)
+                // Copy the data into the send buffer, waiting for space where necessary. The data
+                // is sent as far as the send window allows, the rest is sent when ACKs open up the
+                // window. Retransmissions are handled by the retransmission queue.
                 int totalWrittenData = 0;
-                int writtenData;
-                int dataLeft = len;
-                int totalAcknowledged = 0;
-                Segment outSegment;
-                do {
-                    synchronized (tcb) {
-                        outSegment = SegmentUtil.getPacket(tcb, tcb.getSendNext(), tcb.getReceiveNext());
-                        writtenData = outSegment.setData(buf, offset + totalWrittenData, dataLeft);
-                        totalWrittenData += writtenData;
-                        dataLeft -= writtenData;
-
-                        // send data packet
-                        IP.Packet packet = IPUtil.getPacket(outSegment);
-                        try {
-                            Log.v(TAG, "Sending: " + outSegment.toString());
-                            ip.ip_send(packet);
-                        } catch (IOException e) {
-                            Log.e(TAG, "Error while sending data", e);
-                        } finally {
-                            tcb.addToRetransmissionQueue(new RetransmissionSegment(outSegment));
-                            sendIssued = true;
-                        }
-
-                        tcb.advanceSendNext(outSegment.getLen());
-                    }
-
-                    boolean acknowledged = tcb.waitForAck(outSegment);
-                    if (!acknowledged) {
-                        Log.w(TAG, "Segment not acknowledged. Was waiting for " + outSegment.getLastSeq() + ", but got " + tcb.getSendUnacknowledged());
-                        return totalAcknowledged;
+                while(totalWrittenData < len){
+                    if(tcb.waitForTransmissionQueueSpace() == 0){
+                        Log.w(TAG, "Error in send(): connection closed or interrupted while sending. Sent " + totalWrittenData + " of " + len + " bytes");
+                        return (totalWrittenData > 0) ? totalWrittenData : -1;
                     }
 
-                    totalAcknowledged += writtenData;
+                    totalWrittenData += tcb.queueDataForTransmission(srcs).getLength();
+                    sendIssued = true;
 
-                } while (dataLeft > 0);
+                    tcb.getSegmentSender().transmit();
+                }
 
-                return totalAcknowledged;
+                return totalWrittenData;
             default:
                 Log.e(TAG, "Error in send(): connection closing");
                 return -1;
         }
     }
 
+    /**
+     * Send count bytes of the file, starting at position. The file is mapped into memory one
+     * region at a time, and copied from the mapping into the send buffer, so no heap buffer
+     * the size of the file is needed.
+     * @param channel
+     * @param position
+     * @param count
+     * @return the number of bytes written or -1 if an error occurs.
+     */
+    private long sendFile(FileChannel channel, long position, long count) {
+        if(position < 0 || count < 0){
+            Log.e(TAG, "Error in sendFile(): negative position or count");
+            return -1;
+        }
+
+        try {
+            // like FileChannel.transferTo(), only send the bytes that exist
+            count = Math.max(0, Math.min(count, channel.size() - position));
+        } catch (IOException e) {
+            Log.e(TAG, "Error in sendFile(): could not read file size", e);
+            return -1;
+        }
+
+        long totalWrittenData = 0;
+        while(totalWrittenData < count){
+            MappedByteBuffer region;
+            try {
+                region = channel.map(FileChannel.MapMode.READ_ONLY, position + totalWrittenData,
+                        Math.min(count - totalWrittenData, FILE_MAP_SIZE));
+            } catch (IOException e) {
+                Log.e(TAG, "Error in sendFile(): could not map file", e);
+                return (totalWrittenData > 0) ? totalWrittenData : -1;
+            }
+
+            int writtenData = send(new ByteBuffer[]{ region });
+            if(writtenData < 0){
+                return (totalWrittenData > 0) ? totalWrittenData : -1;
+            }
+
+            totalWrittenData += writtenData;
+            if(region.hasRemaining()){
+                // connection closed while sending
+                return totalWrittenData;
+            }
+        }
+
+        return totalWrittenData;
+    }
+
+    /**
+     * Copy as much data as fits into the send buffer, and start sending it.
+     * @param buf
+     * @param offset
+     * @param len
+     * @return the future of the write, which has already failed if the connection is not
+     *         open for sending
+     */
+    private WriteFuture sendAsync(byte[] buf, int offset, int len) {
+        WriteFuture future = tcb.queueDataForTransmission(buf, offset, len);
+        if(future.getStatus() == WriteFuture.Status.FAILED){
+            Log.e(TAG, "Error in sendAsync(): connection not open for sending (state: " + tcb.getState() + ")");
+            return future;
+        }
+
+        if(future.getLength() > 0){
+            sendIssued = true;
+            tcb.getSegmentSender().transmit();
+        }
+
+        return future;
+    }
+
     /**
      * ??
      * @param buf
@@ -163,6 +237,17 @@ public class TCP {
      * @return
      */
     private int receive(byte[] buf, int offset, int maxlen) {
+        return receive(new ByteBuffer[]{ ByteBuffer.wrap(buf, offset, maxlen) });
+    }
+
+    /**
+     * Receive data into the remaining space of the buffers, in order. Blocks until some
+     * data has arrived, and returns whatever is on hand.
+     * @param dsts
+     * @return the number of bytes received, 0 if the other side closed the connection and
+     *         all data has been received, or -1 if an error occurs
+     */
+    private int receive(ByteBuffer[] dsts) {
         switch(tcb.getState()){
             case CLOSED:
                 Log.e(TAG, "Error in receive(): connection does not exist");
@@ -180,13 +265,22 @@ public class TCP {
             case ESTABLISHED:
             case FIN_WAIT_1:
             case FIN_WAIT_2:
-                if(!tcb.hasDataToProcess()){
-                    Log.v(TAG, "receive(): call queued until segments arrive");
-                    tcb.waitForDataToProcess();
+                // blocks until the receive low-water mark is reached
+                int available = tcb.waitForDataToProcess(soTimeout);
+                if(available == 0){
+                    // no data will arrive anymore, handle the call in the new state
+                    return receive(dsts);
+                } else if(available < 0){
+                    Log.w(TAG, "Error in receive(): timed out or interrupted while waiting for data");
+                    return -1;
                 }
 
                 Log.v(TAG, "receive(): returning data from processing queue");
-                return tcb.getDataToProcess(buf, offset, maxlen);
+                int len = tcb.getDataToProcess(dsts);
+
+                // reading may have reopened the receive window
+                tcb.getSegmentSender().sendWindowUpdate();
+                return len;
             case CLOSE_WAIT:
                 /*
                  * Since the remote side has already sent FIN, RECEIVEs must be
@@ -199,13 +293,137 @@ public class TCP {
                 }
 
                 Log.v(TAG, "receive(): returning data from processing queue");
-                return tcb.getDataToProcess(buf, offset, maxlen);
+                return tcb.getDataToProcess(dsts);
             default:
                 Log.e(TAG, "Error in receive(): connection closing");
                 return -1;
         }
     }
 
+    /**
+     * Lend received data to the user without copying it, see Socket.borrow().
+     * @param maxlen
+     * @return the lent data, an empty buffer if the other side closed the connection and
+     *         all data has been read, or null if an error occurs
+     */
+    private ByteBuffer lend(int maxlen) {
+        switch(tcb.getState()){
+            case CLOSED:
+                Log.e(TAG, "Error in lend(): connection does not exist");
+                return null;
+            case LISTEN:
+            case SYN_SENT:
+            case SYN_RECEIVED:
+                Log.e(TAG, "Error in lend(): connection not ESTABLISHED");
+                return null;
+            case ESTABLISHED:
+            case FIN_WAIT_1:
+            case FIN_WAIT_2:
+                // blocks until the receive low-water mark is reached
+                int available = tcb.waitForDataToProcess(soTimeout);
+                if(available == 0){
+                    // no data will arrive anymore, handle the call in the new state
+                    return lend(maxlen);
+                } else if(available < 0){
+                    Log.w(TAG, "Error in lend(): timed out or interrupted while waiting for data");
+                    return null;
+                }
+
+                Log.v(TAG, "lend(): lending data from processing queue");
+                return tcb.lendDataToProcess(maxlen);
+            case CLOSE_WAIT:
+                // satisfied by text already on hand, like receive()
+                if(!tcb.hasDataToProcess()){
+                    Log.e(TAG, "Error in lend(): connection closing");
+                    return ByteBuffer.allocate(0);
+                }
+
+                Log.v(TAG, "lend(): lending data from processing queue");
+                return tcb.lendDataToProcess(maxlen);
+            default:
+                Log.e(TAG, "Error in lend(): connection closing");
+                return null;
+        }
+    }
+
+    /**
+     * Release data lent to the user, see Socket.release().
+     * @param len
+     * @return the number of bytes released
+     */
+    private int release(int len) {
+        len = tcb.releaseDataToProcess(len);
+
+        switch(tcb.getState()){
+            case ESTABLISHED:
+            case FIN_WAIT_1:
+            case FIN_WAIT_2:
+                // releasing data may have reopened the receive window
+                tcb.getSegmentSender().sendWindowUpdate();
+                break;
+        }
+        return len;
+    }
+
+    /**
+     * Give up opening the connection, because the open timed out or was interrupted. The
+     * connection is closed, unless it has been established in the meantime.
+     */
+    private void abortOpen() {
+        synchronized (tcb){
+            switch(tcb.getState()){
+                case LISTEN:
+                case SYN_SENT:
+                case SYN_RECEIVED:
+                    // stop retransmitting the SYN
+                    tcb.clearRetransmissionQueue();
+                    tcb.enterState(TransmissionControlBlock.State.CLOSED);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Send the data that is still queued, including data held back by TCP_CORK or Nagle's
+     * algorithm, and wait until all of it has been acknowledged, so the FIN can follow it.
+     * @return false if the thread was interrupted before all data was acknowledged
+     */
+    private boolean flushBeforeFin() {
+        tcb.pushQueuedData();
+        tcb.getSegmentSender().transmit();
+        if(tcb.hasDataToTransmit() || tcb.hasDataToRetransmit()){
+            Log.v(TAG, "Waiting until all packets have been sent");
+            if(!tcb.waitUntilAllAcknowledged()){
+                Log.w(TAG, "close(): interrupted before all data was acknowledged");
+                return false;
+            }
+            Log.v(TAG, "All packets are either acknowledged or timed out");
+        }
+        return true;
+    }
+
+    /**
+     * Send a FIN after the data that has been sent, and queue it for retransmission.
+     * Should be called while holding the lock of the tcb.
+     */
+    private void sendFin() {
+        Segment segment = SegmentUtil.getFINPacket(tcb, tcb.getSendNext(), tcb.getReceiveNext());
+        IP.Packet packet = IPUtil.getPacket(segment);
+        try {
+            Log.v(TAG, "Sending: " + segment.toString());
+            ip.ip_send(packet);
+        } catch (IOException e) {
+            Log.e(TAG, "Error while sending FIN", e);
+        } finally {
+            tcb.addToRetransmissionQueue(new RetransmissionSegment(segment));
+        }
+
+        tcb.setSendUnacknowledged(segment.getSeq());
+        tcb.advanceSendNext(segment.getLen());
+
+        tcb.setUnacknowledgedFin(segment);
+    }
+
     /**
      * Get the state the TCP stack is currently in.
      * @return
@@ -289,15 +507,21 @@ public class TCP {
 
             // Wait for either the ESTABLISHED state (success) or the CLOSED state (error)
             Log.v(TAG, "connect(): waiting until state becomes ESTABLISHED or CLOSED");
-            tcb.waitForStates(TransmissionControlBlock.State.ESTABLISHED,
-                    TransmissionControlBlock.State.CLOSED);
+            if(!tcb.waitForStates(connectTimeout, TransmissionControlBlock.State.ESTABLISHED,
+                    TransmissionControlBlock.State.CLOSED)){
+                Log.w(TAG, "Error in connect(): timed out or interrupted");
+                abortOpen();
+            }
 
             return tcb.getState() == TransmissionControlBlock.State.ESTABLISHED;
         }
 
         /**
          * Accept a connection on this socket.
-         * This call blocks until a connection is made.
+         * This call blocks until a connection is made, the socket is
+         * closed, the timeout set with setSoTimeout() expires or the
+         * thread is interrupted. In the last two cases the socket stops
+         * listening.
          */
         public void accept() {
             initSegmentReceiver();
@@ -305,7 +529,11 @@ public class TCP {
             tcb.enterState(TransmissionControlBlock.State.LISTEN);
 
             Log.v(TAG, "accept(): waiting until state becomes ESTABLISHED");
-            tcb.waitForStates(TransmissionControlBlock.State.ESTABLISHED);
+            if(!tcb.waitForStates(soTimeout, TransmissionControlBlock.State.ESTABLISHED,
+                    TransmissionControlBlock.State.CLOSED)){
+                Log.w(TAG, "Error in accept(): timed out or interrupted");
+                abortOpen();
+            }
         }
 
         /**
@@ -316,12 +544,122 @@ public class TCP {
          * @param buf the buffer to read into
          * @param offset the offset to begin reading data into
          * @param maxlen the maximum number of bytes to read
-         * @return the number of bytes read, or -1 if an error occurs.
+         * @return the number of bytes read, or -1 if an error occurs, the
+         *         timeout set with setSoTimeout() expires or the thread is
+         *         interrupted before any data arrived.
          */
         public int read(byte[] buf, int offset, int maxlen) {
             return receive(buf, offset, maxlen);
         }
 
+        /**
+         * Reads bytes from the socket into the remaining space of the
+         * buffers, in order (scattering read). A fixed size header and
+         * the body that follows it can be read in a single call. Like
+         * read(), this call is not required to fill the buffers. The
+         * position of each buffer is advanced by the number of bytes
+         * read into it.
+         *
+         * @param dsts the buffers to read into, either heap or direct buffers
+         * @return the number of bytes read, or -1 if an error occurs, the
+         *         timeout expires or the thread is interrupted.
+         */
+        public int read(ByteBuffer[] dsts) {
+            return receive(dsts);
+        }
+
+        /**
+         * Set the timeout of read(), borrow() and accept() (SO_TIMEOUT).
+         * A read that times out fails, but leaves the connection open. An
+         * accept that times out stops listening. Blocked calls also stop
+         * when their thread is interrupted.
+         *
+         * @param timeout the timeout in ms, or 0 to block without a timeout
+         *        (the default)
+         */
+        public void setSoTimeout(int timeout) {
+            soTimeout = Math.max(0, timeout);
+        }
+
+        /**
+         * @return the timeout of read(), borrow() and accept() in ms
+         */
+        public int getSoTimeout() {
+            return soTimeout;
+        }
+
+        /**
+         * Set the timeout of connect(). A connect that times out gives up
+         * the connection attempt and fails.
+         *
+         * @param timeout the timeout in ms, or 0 to wait until the SYN
+         *        retransmissions are exhausted (the default)
+         */
+        public void setConnectTimeout(int timeout) {
+            connectTimeout = Math.max(0, timeout);
+        }
+
+        /**
+         * @return the timeout of connect() in ms
+         */
+        public int getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        /**
+         * Set the receive low-water mark (SO_RCVLOWAT): the number of
+         * bytes that should have arrived before a blocked read() returns,
+         * so a reader that consumes large chunks is not woken up for
+         * every segment. A read returns fewer bytes once the other side
+         * closed the connection. The low-water mark is limited to half
+         * the receive buffer.
+         *
+         * @param bytes the low-water mark, 1 by default
+         */
+        public void setReceiveLowWatermark(int bytes) {
+            tcb.setReceiveLowWatermark(bytes);
+        }
+
+        /**
+         * @return the receive low-water mark in bytes
+         */
+        public int getReceiveLowWatermark() {
+            return tcb.getReceiveLowWatermark();
+        }
+
+        /**
+         * Borrows received bytes from the socket, without copying them.
+         * Like read(), this blocks until data has arrived. The bytes
+         * stay in the receive buffer until they are released, so they
+         * can be parsed in place.
+         *
+         * The borrowed bytes should be released before the next read()
+         * or borrow(). Bytes that are not released are returned again
+         * by the next call.
+         *
+         * @param maxlen the maximum number of bytes to borrow
+         * @return a read-only buffer with the borrowed bytes, which may be
+         *         fewer than have arrived, an empty buffer if the other side
+         *         closed the connection, or null if an error occurs, the
+         *         timeout expires or the thread is interrupted.
+         */
+        public ByteBuffer borrow(int maxlen) {
+            return lend(maxlen);
+        }
+
+        /**
+         * Releases the first len borrowed bytes, so they are removed from
+         * the receive buffer. The buffer returned by borrow() should not be
+         * used anymore afterwards.
+         *
+         * @param len the number of bytes to release
+         * @return the number of bytes released, which is less than len if
+         *         fewer bytes were borrowed
+         */
+        public int release(int len) {
+            return TCP.this.release(len);
+        }
+
         /**
          * Writes to the socket from the buffer.
          *
@@ -334,11 +672,171 @@ public class TCP {
             return send(buf, offset, len);
         }
 
+        /**
+         * Writes the remaining bytes of the buffers to the socket, in order (gathering
+         * write). The data is copied from the buffers into the send buffer directly, so
+         * a header and its payload do not have to be concatenated first. The position of
+         * each buffer is advanced by the number of bytes written from it.
+         *
+         * @param srcs the buffers to write from, either heap or direct buffers
+         * @return the number of bytes written or -1 if an error occurs.
+         */
+        public int write(ByteBuffer[] srcs) {
+            return send(srcs);
+        }
+
+        /**
+         * Writes count bytes of a file to the socket, starting at the given position in the
+         * file. The file is memory mapped, and the data is copied from the mapping into the
+         * send buffer directly. The position of the channel is not changed.
+         *
+         * @param channel the file to send
+         * @param position the position in the file of the first byte to send
+         * @param count the number of bytes to send
+         * @return the number of bytes written, which is less than count if the file is
+         *         smaller, or -1 if an error occurs (e.g. a negative position or count).
+         */
+        public long sendFile(FileChannel channel, long position, long count) {
+            return TCP.this.sendFile(channel, position, count);
+        }
+
+        /**
+         * Writes to the socket from the buffer without blocking. The data that fits in
+         * the send buffer is copied, and sent in the background.
+         *
+         * @param buf the buffer to
+         * @param offset the offset to begin writing data from
+         * @param len the number of bytes to write
+         * @return a future that completes when the receiver acknowledged the copied bytes,
+         *         or fails if the connection is aborted before that. Its length is the
+         *         number of bytes copied, which is less than len if the send buffer is full.
+         *         If no bytes were copied, the future is done right away with the status
+         *         EMPTY, and is not acknowledged.
+         */
+        public WriteFuture writeAsync(byte[] buf, int offset, int len) {
+            return sendAsync(buf, offset, len);
+        }
+
+        /**
+         * Set the send low-water mark (SO_SNDLOWAT): the number of bytes that must be free in
+         * the send buffer before the socket is writable. The default is 1 byte.
+         *
+         * @param bytes the low-water mark, at most the size of the send buffer
+         */
+        public void setSendLowWatermark(int bytes) {
+            tcb.setSendLowWatermark(bytes);
+        }
+
+        /**
+         * @return the send low-water mark in bytes
+         */
+        public int getSendLowWatermark() {
+            return tcb.getSendLowWatermark();
+        }
+
+        /**
+         * Blocks until at least the send low-water mark of bytes is free in the send buffer,
+         * or the timeout expires. A write of at most that many bytes does not block then.
+         *
+         * @param timeout the maximum time to wait
+         * @param unit the unit of the timeout
+         * @return the number of free bytes in the send buffer, 0 if the timeout expired
+         *         or the thread was interrupted first, or -1 if the connection does not
+         *         accept writes (anymore).
+         */
+        public int awaitWritable(long timeout, TimeUnit unit) {
+            return tcb.waitUntilWritable(timeout, unit);
+        }
+
+        /**
+         * Set the listener that is called when the socket becomes writable again, i.e. when
+         * ACKs free up the send low-water mark of bytes in the send buffer after a write
+         * filled it. If the socket is writable already, the listener is called right away.
+         * Listeners are called on a callback thread that is shared by all sockets.
+         *
+         * @param listener the listener, or null to remove it
+         */
+        public void setOnWritableListener(OnWritableListener listener) {
+            tcb.setOnWritableListener(listener);
+        }
+
+        /**
+         * Enable or disable TCP_NODELAY, i.e. disable or enable Nagle's algorithm. With
+         * Nagle's algorithm small writes are collected while data is in flight, and sent
+         * as one segment once that data is acknowledged. It is enabled by default.
+         *
+         * @param on true to send every write right away
+         */
+        public void setTcpNoDelay(boolean on) {
+            tcb.setNoDelay(on);
+
+            if(on){
+                // send the data that was held back
+                tcb.getSegmentSender().transmit();
+            }
+        }
+
+        /**
+         * @return true if Nagle's algorithm is disabled for this socket
+         */
+        public boolean getTcpNoDelay() {
+            return tcb.getNoDelay();
+        }
+
+        /**
+         * Set the rate at which segments are paced. By default the rate is derived from
+         * the congestion window and the round-trip time, so a window of segments is spread
+         * over a round trip instead of being sent back-to-back.
+         *
+         * @param bytesPerSecond the pacing rate, or 0 to use the derived rate
+         */
+        public void setPacingRate(long bytesPerSecond) {
+            tcb.getPacer().setConfiguredRate(bytesPerSecond);
+        }
+
+        /**
+         * Cork or uncork the socket (TCP_CORK). While the socket is corked, writes are
+         * collected into full segments, and a segment is only sent when it is full. This
+         * allows a header and its payload to be written separately, but sent together.
+         * Uncorking sends the remaining data right away.
+         *
+         * @param on true to cork the socket
+         */
+        public void setTcpCork(boolean on) {
+            tcb.setCork(on);
+
+            if(!on){
+                flush();
+            }
+        }
+
+        /**
+         * @return true if the socket is corked
+         */
+        public boolean getTcpCork() {
+            return tcb.getCork();
+        }
+
+        /**
+         * Send all data that has been written so far, without waiting for it to fill a
+         * segment. The socket stays corked if it was.
+         */
+        public void flush() {
+            tcb.pushQueuedData();
+            tcb.getSegmentSender().transmit();
+        }
+
         /**
          * Closes the connection for this socket.
-         * Blocks until the connection is closed.
+         * Blocks until the connection is closed, or the thread is
+         * interrupted. If the thread is interrupted after the FIN has
+         * been sent, the connection is closed in the background. If it
+         * is interrupted while the remaining data is still being sent,
+         * the connection stays open, and close() may be called again.
          *
-         * @return true unless no connection was open.
+         * @return false if no connection was open, the connection was
+         *         aborted, or the thread was interrupted before the FIN
+         *         could be sent, true otherwise.
          */
         public boolean close() {
             switch(tcb.getState()){
@@ -361,22 +859,8 @@ public class TCP {
                 case SYN_RECEIVED:
                     if(!sendIssued && !tcb.hasDataToTransmit()){
                         synchronized (tcb){
-                            Segment segment = SegmentUtil.getFINPacket(tcb, tcb.getSendNext(), tcb.getReceiveNext());
-                            IP.Packet packet = IPUtil.getPacket(segment);
-                            try {
-                                Log.v(TAG, "Sending: " + segment.toString());
-                                ip.ip_send(packet);
-                            } catch (IOException e) {
-                                Log.e(TAG, "Error while sending FIN", e);
-                            } finally {
-                                tcb.addToRetransmissionQueue(new RetransmissionSegment(segment));
-                            }
-
-                            tcb.setSendUnacknowledged(segment.getSeq());
-                            tcb.advanceSendNext(segment.getLen());
-
+                            sendFin();
                             tcb.enterState(TransmissionControlBlock.State.FIN_WAIT_1);
-                            tcb.setUnacknowledgedFin(segment);
                         }
 
                         Log.v(TAG, "close(): waiting until state becomes CLOSED");
@@ -386,7 +870,12 @@ public class TCP {
                     } else {
                         // Queue close for processing after entering ESTABLISHED state
                         Log.v(TAG, "Queueing close for processing after entering ESTABLISHED state");
-                        tcb.waitForStates(TransmissionControlBlock.State.ESTABLISHED);
+                        if(!tcb.waitForStates(TransmissionControlBlock.State.ESTABLISHED,
+                                TransmissionControlBlock.State.CLOSED)){
+                            Log.w(TAG, "close(): interrupted before the connection was established");
+                            abortOpen();
+                            return true;
+                        }
 
                         return close();
                     }
@@ -394,33 +883,27 @@ public class TCP {
                 case ESTABLISHED:
                     tcb.enterState(TransmissionControlBlock.State.FIN_WAIT_1);
 
-                    // Queue this close until all preceding SENDs have finished
-                    // In this implementation we always send data immediately, so no
-                    // data is added to the transmitQueue (i.e. tcb.hasDataToTransmit() will
-                    // always return false).
-                    if(tcb.hasDataToTransmit() || tcb.hasDataToRetransmit()){
-                        Log.v(TAG, "Waiting until all packets have been sent");
-                        tcb.waitUntilAllAcknowledged();
-                        Log.v(TAG, "All packets are either acknowledged or timed out");
-                    }
+                    // Queue this close until all preceding SENDs have finished, i.e. until
+                    // the data in the transmitQueue has been sent and acknowledged.
+                    boolean flushed = flushBeforeFin();
 
                     // sending FIN until entering FIN_WAIT_1 state should be synchronized
                     synchronized (tcb){
-                        Segment segment = SegmentUtil.getFINPacket(tcb, tcb.getSendNext(), tcb.getReceiveNext());
-                        IP.Packet packet = IPUtil.getPacket(segment);
-                        try {
-                            Log.v(TAG, "Sending: " + segment.toString());
-                            ip.ip_send(packet);
-                        } catch (IOException e) {
-                            Log.e(TAG, "Error while sending FIN", e);
-                        } finally {
-                            tcb.addToRetransmissionQueue(new RetransmissionSegment(segment));
+                        TransmissionControlBlock.State state = tcb.getState();
+                        if(state != TransmissionControlBlock.State.FIN_WAIT_1
+                                && state != TransmissionControlBlock.State.CLOSING){
+                            Log.w(TAG, "close(): connection was aborted before the FIN could be sent");
+                            return false;
+                        }
+                        if(!flushed){
+                            // the FIN may only follow the remaining data, so the connection stays open
+                            tcb.enterState((state == TransmissionControlBlock.State.FIN_WAIT_1)
+                                    ? TransmissionControlBlock.State.ESTABLISHED
+                                    : TransmissionControlBlock.State.CLOSE_WAIT);
+                            return false;
                         }
 
-                        tcb.setSendUnacknowledged(segment.getSeq());
-                        tcb.advanceSendNext(segment.getLen());
-
-                        tcb.setUnacknowledgedFin(segment);
+                        sendFin();
                     }
 
                     // Wait until state is CLOSED
@@ -429,34 +912,21 @@ public class TCP {
 
                     return true;
                 case CLOSE_WAIT:
-                    // Queue this close until all preceding SENDs have finished
-                    // In this implementation we always send data immediately, so no
-                    // data is added to the transmitQueue (i.e. tcb.hasDataToTransmit() will
-                    // always return false).
-                    if(tcb.hasDataToTransmit() || tcb.hasDataToRetransmit()){
-                        Log.v(TAG, "Waiting until all packets have been sent");
-                        tcb.waitUntilAllAcknowledged();
-                        Log.v(TAG, "All packets are either acknowledged or timed out");
+                    // Queue this close until all preceding SENDs have finished, i.e. until
+                    // the data in the transmitQueue has been sent and acknowledged.
+                    if(!flushBeforeFin()){
+                        return false;
                     }
 
                     // Send a FIN segment, enter LAST_ACK state
                     synchronized (tcb){
-                        Segment segment = SegmentUtil.getFINPacket(tcb, tcb.getSendNext(), tcb.getReceiveNext());
-                        IP.Packet packet = IPUtil.getPacket(segment);
-                        try {
-                            Log.v(TAG, "Sending: " + segment.toString());
-                            ip.ip_send(packet);
-                        } catch (IOException e) {
-                            Log.e(TAG, "Error while sending FIN", e);
-                        } finally {
-                            tcb.addToRetransmissionQueue(new RetransmissionSegment(segment));
+                        if(tcb.getState() != TransmissionControlBlock.State.CLOSE_WAIT){
+                            Log.w(TAG, "close(): connection was aborted before the FIN could be sent");
+                            return false;
                         }
 
-                        tcb.setSendUnacknowledged(segment.getSeq());
-                        tcb.advanceSendNext(segment.getLen());
-
+                        sendFin();
                         tcb.enterState(TransmissionControlBlock.State.LAST_ACK);
-                        tcb.setUnacknowledgedFin(segment);
                     }
 
                     // Wait until state is CLOSED
@@ -136,14 +136,18 @@ public class TCPManager {
 
         @Override
         protected Boolean doInBackground(String... filePath) {
-            // image protocol: start with message <image>, send image size, send image data
+            // image protocol: start with message <image>, send image size, send image data.
+            // The socket is corked, so the header is sent in the same segment as the image
             byte[] open = "<image>".getBytes();
+            socket.setTcpCork(true);
             if(socket.write(open, 0, open.length) != open.length){
+                socket.setTcpCork(false);
                 return false;
             }
 
             Bitmap bitmap = decodeFile(filePath[0]);
             if(bitmap == null){
+                socket.setTcpCork(false);
                 return false;
             }
 
@@ -156,11 +160,10 @@ public class TCPManager {
             socket.write(ByteBuffer.allocate(4).putInt(buf.length).array(), 0, 4);
 
             // send image
-            if(socket.write(buf, 0, buf.length) != buf.length){
-                return false;
-            }
+            boolean sent = (socket.write(buf, 0, buf.length) == buf.length);
+            socket.setTcpCork(false);
 
-            return true;
+            return sent;
         }
 
         @Override
@@ -184,9 +187,10 @@ public class TCPManager {
                     Log.v(TAG, "GETTING IMAGE");
 
                     // read image length
-                    byte[] imgLenBuf = new byte[4];
-                    socket.read(imgLenBuf, 0, 4);
-                    int imageSize = ByteBuffer.wrap(imgLenBuf).getInt();
+                    int imageSize = readInt();
+                    if(imageSize < 0){
+                        break;
+                    }
 
                     Log.v(TAG, "IMAGE SIZE in bytes: " + imageSize);
 
@@ -208,6 +212,36 @@ public class TCPManager {
             return null;
         }
 
+        /**
+         * Read a 4 byte integer. It is parsed in the receive buffer of the socket if
+         * all 4 bytes can be borrowed, otherwise they are read into a separate buffer.
+         * @return the integer, or -1 if the connection is closed
+         */
+        private int readInt() {
+            ByteBuffer borrowed = socket.borrow(4);
+            if(borrowed == null){
+                return -1;
+            }
+
+            if(borrowed.remaining() == 4){
+                int value = borrowed.getInt();
+                socket.release(4);
+                return value;
+            }
+
+            // the integer has not fully arrived, or wraps around the end of the receive buffer
+            byte[] buf = new byte[4];
+            int len = 0;
+            while(len < buf.length){
+                int read = socket.read(buf, len, buf.length - len);
+                if(read <= 0){
+                    return -1;
+                }
+                len += read;
+            }
+            return ByteBuffer.wrap(buf).getInt();
+        }
+
         @Override
         protected void onProgressUpdate(Object... values) {
             if(values[0] instanceof String){
@@ -0,0 +1,204 @@
+package nl.vu.cs.cn.tcp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded FIFO queue of bytes backed by a single primitive array. Data is copied in and
+ * out in bulk, and the number of stored bytes is tracked so size() is O(1).
+ *
+ * Note: this class is not thread safe. Callers should guard it with their own lock.
+ */
+public class ByteRingBuffer {
+
+    private byte[] buffer;
+
+    private int head;       // index of the first byte in the buffer
+    private int size;       // number of bytes stored in the buffer
+
+    /**
+     * Create a new ring buffer that can hold at most capacity bytes
+     * @param capacity
+     */
+    public ByteRingBuffer(int capacity){
+        buffer = new byte[capacity];
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Copy at most len bytes from src (starting at offset) to the end of the buffer.
+     * @param src
+     * @param offset
+     * @param len
+     * @return the number of bytes added, which is less than len if the buffer is full
+     */
+    public int put(byte[] src, int offset, int len){
+        len = Math.min(len, free());
+
+        // copy in at most two parts: from tail to end of the array, and from the start of the array
+        int tail = (head + size) % buffer.length;
+        int firstPart = Math.min(len, buffer.length - tail);
+        System.arraycopy(src, offset, buffer, tail, firstPart);
+        System.arraycopy(src, offset + firstPart, buffer, 0, len - firstPart);
+
+        size += len;
+        return len;
+    }
+
+    /**
+     * Copy as many of the remaining bytes of src as fit to the end of the buffer. The
+     * position of src is advanced by the number of bytes added. Works for both heap and
+     * direct buffers.
+     * @param src
+     * @return the number of bytes added, which is less than src.remaining() if the buffer is full
+     */
+    public int put(ByteBuffer src){
+        int len = Math.min(src.remaining(), free());
+
+        int tail = (head + size) % buffer.length;
+        int firstPart = Math.min(len, buffer.length - tail);
+        src.get(buffer, tail, firstPart);
+        src.get(buffer, 0, len - firstPart);
+
+        size += len;
+        return len;
+    }
+
+    /**
+     * Move at most maxlen bytes from the start of the buffer into dst (starting at offset).
+     * @param dst
+     * @param offset
+     * @param maxlen
+     * @return the number of bytes copied into dst
+     */
+    public int get(byte[] dst, int offset, int maxlen){
+        int len = peek(dst, offset, maxlen);
+        skip(len);
+        return len;
+    }
+
+    /**
+     * Move as many bytes from the start of the buffer as fit into the remaining space of
+     * dst. The position of dst is advanced by the number of bytes moved. Works for both
+     * heap and direct buffers.
+     * @param dst
+     * @return the number of bytes moved into dst
+     */
+    public int get(ByteBuffer dst){
+        int len = Math.min(dst.remaining(), size);
+
+        int firstPart = Math.min(len, buffer.length - head);
+        dst.put(buffer, head, firstPart);
+        dst.put(buffer, 0, len - firstPart);
+
+        skip(len);
+        return len;
+    }
+
+    /**
+     * Copy at most maxlen bytes from the start of the buffer into dst (starting at offset),
+     * without removing them from the buffer.
+     * @param dst
+     * @param offset
+     * @param maxlen
+     * @return the number of bytes copied into dst
+     */
+    public int peek(byte[] dst, int offset, int maxlen){
+        return peek(0, dst, offset, maxlen);
+    }
+
+    /**
+     * Copy at most maxlen bytes, starting position bytes after the start of the buffer,
+     * into dst (starting at offset), without removing them from the buffer.
+     * @param position
+     * @param dst
+     * @param offset
+     * @param maxlen
+     * @return the number of bytes copied into dst
+     */
+    public int peek(int position, byte[] dst, int offset, int maxlen){
+        int len = Math.max(0, Math.min(maxlen, size - position));
+        int start = (head + position) % buffer.length;
+
+        int firstPart = Math.min(len, buffer.length - start);
+        System.arraycopy(buffer, start, dst, offset, firstPart);
+        System.arraycopy(buffer, 0, dst, offset + firstPart, len - firstPart);
+
+        return len;
+    }
+
+    /**
+     * Get a read-only view of at most maxlen bytes at the start of the buffer, without
+     * copying or removing them. The view only holds the bytes up to the end of the backing
+     * array, so it may hold fewer bytes than are stored. It shows the stored bytes until
+     * they are removed from the buffer.
+     * @param maxlen
+     * @return the view, with position 0 and the number of bytes as limit
+     */
+    public ByteBuffer view(int maxlen){
+        int len = Math.max(0, Math.min(maxlen, Math.min(size, buffer.length - head)));
+        return ByteBuffer.wrap(buffer, head, len).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Remove at most len bytes from the start of the buffer.
+     * @param len
+     * @return the number of bytes removed
+     */
+    public int skip(int len){
+        len = Math.min(len, size);
+
+        head = (head + len) % buffer.length;
+        size -= len;
+        return len;
+    }
+
+    /**
+     * Change the capacity of the buffer. The stored bytes are kept, so the new capacity
+     * should be at least size().
+     * @param capacity
+     */
+    public void resize(int capacity){
+        if(capacity < size){
+            throw new IllegalArgumentException("Capacity " + capacity + " is smaller than the " + size + " stored bytes");
+        }
+
+        byte[] resized = new byte[capacity];
+        peek(resized, 0, size);
+        buffer = resized;
+        head = 0;
+    }
+
+    /**
+     * Remove all bytes from the buffer
+     */
+    public void clear(){
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * @return the number of bytes stored in the buffer
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * @return the number of bytes that can still be added to the buffer
+     */
+    public int free(){
+        return buffer.length - size;
+    }
+
+    /**
+     * @return the maximum number of bytes this buffer can hold
+     */
+    public int capacity(){
+        return buffer.length;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+}
@@ -0,0 +1,61 @@
+package nl.vu.cs.cn.tcp;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import nl.vu.cs.cn.Log;
+
+/**
+ * CallbackExecutor calls the listeners of the user (OnWriteCompleteListener,
+ * OnWritableListener) on a thread that is shared by all connections. The callbacks are
+ * collected while the connection is locked, and called after the lock has been released,
+ * so a listener that blocks or writes to a socket cannot stall the timing wheel or the
+ * handling of incoming segments. Callbacks are called in the order they were collected.
+ */
+public class CallbackExecutor implements Executor {
+
+    private static final String TAG = "CallbackExecutor";
+
+    private static CallbackExecutor instance;
+
+    private final ExecutorService executor;
+
+    /**
+     * Get the executor that is shared by all connections. The thread is created on the
+     * first call.
+     * @return
+     */
+    public static synchronized CallbackExecutor getInstance(){
+        if(instance == null){
+            instance = new CallbackExecutor();
+        }
+        return instance;
+    }
+
+    private CallbackExecutor(){
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void execute(final Runnable callback){
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callback.run();
+                } catch (RuntimeException e) {
+                    // a failing listener should not affect the callbacks of other connections
+                    Log.e(TAG, "Error in callback", e);
+                }
+            }
+        });
+    }
+}
@@ -1,85 +1,12 @@
 package nl.vu.cs.cn.tcp;
 
-import java.nio.ByteBuffer;
-
 import nl.vu.cs.cn.IP;
 
 public class ChecksumUtil {
 
-    // Size of pseudo header in bytes
-    private static final int PSEUDO_HEADER_SIZE = 96 / 8;
-
-    public static short calculateChecksum(ByteBuffer tcpPacketBuffer, IP.IpAddress srcAddr, IP.IpAddress destAddr, int tcpLength) {
-        tcpPacketBuffer.flip();
-        ByteBuffer pseudoHeader = getPseudoHeader(srcAddr, destAddr, tcpLength);
-
-        int totalLength = tcpLength + PSEUDO_HEADER_SIZE;
-        if(totalLength % 2 != 0){
-             /*
-                 odd number: if a segment contains an odd number of header and
-                 text octets to be checksummed, the last octet is padded on the
-                 right with zeros to form a 16 bit word for checksum purposes.
-                 The pad is not part of the segment.
-             */
-            totalLength += 1;
-        }
-
-        ByteBuffer packet = ByteBuffer.allocate(totalLength);
-
-        packet.put(pseudoHeader);
-        packet.put(tcpPacketBuffer);
-
-        StringBuffer sb = new StringBuffer();
-        for(byte b : packet.array()){
-            sb.append(String.format("%8s", Integer.toBinaryString(b & 0xFF)).replace(' ', '0'));
-        }
-
-        return getOnesCompliment(packet);
-    }
-
     /**
-     * Ones compliment calculation used for tcp checksum.
-     * Source: https://code.google.com/p/java-router/
-     *
-     * @param packet - the tcp packet, including the data and pseudo header
-     * @return
-     */
-    private static short getOnesCompliment(ByteBuffer packet) {
-        packet.flip();
-        int sum = 0;
-        boolean isOdd = false;
-        if (packet != null) {
-            int pos = packet.position();
-
-            while (packet.remaining() > 1) {
-                if (isOdd) {
-                    sum += (packet.get() & 0xFF);
-                    isOdd = false;
-                } else {
-                    sum += (packet.getShort() & 0xFFFF);
-                }
-            }
-            if (packet.remaining() == 1) {
-                if (isOdd) {
-                    sum += (packet.get() & 0xFF);
-                    isOdd = false;
-                } else {
-                    sum += ((packet.get() & 0xFF) << 8);
-                    isOdd = true;
-                }
-            }
-            packet.position(pos);
-        }
-
-        while ((sum >> 16) > 0) {
-            sum = (sum & 0xFFFF) + (sum >> 16);
-        }
-
-        return (short)(~sum);
-    }
-
-    /**
-     * Create a pseudo header that looks as follows:
+     * Calculate the TCP checksum of a packet. The checksum covers a pseudo header that
+     * looks as follows, followed by the tcp header and data:
      *
      * +--------+--------+--------+--------+
      * |           Source Address          |
@@ -89,33 +16,58 @@ public class ChecksumUtil {
      * |  zero  |  PTCL  |    TCP Length   |
      * +--------+--------+--------+--------+
      *
-     * It is used to calculate the checksum in the tcp packet, and ensures that
-     * misrouted segments can be detected. When calculating the checksum,
-     * this pseudo header is prefixed to the tcp header.
+     * The pseudo header ensures that misrouted segments can be detected. It is added to
+     * the sum directly, so neither the pseudo header nor the packet is copied.
+     *
+     * When the packet contains a checksum already, the result is 0 if and only if that
+     * checksum is correct. Otherwise the checksum field should be 0.
      *
      * @param srcAddr - 32 bit source ip address
      * @param destAddr - 32 bit destination ip address
+     * @param packet - array holding the tcp header and data
+     * @param offset - offset of the tcp header in packet
      * @param tcpLength - length of tcp header + data, in bytes
-     *
      * @return
      */
-    private static ByteBuffer getPseudoHeader(IP.IpAddress srcAddr, IP.IpAddress destAddr, int tcpLength) {
-        ByteBuffer bb = ByteBuffer.allocate(PSEUDO_HEADER_SIZE);
-        bb.putInt(swap(srcAddr.getAddress()));
-        bb.putInt(swap(destAddr.getAddress()));
-
-        // add 1 byte of zero's
-        bb.put((byte) 0);
+    public static short calculateChecksum(IP.IpAddress srcAddr, IP.IpAddress destAddr, byte[] packet, int offset, int tcpLength) {
+        return calculateChecksum(srcAddr.getAddress(), destAddr.getAddress(), packet, offset, tcpLength);
+    }
 
-        // protocol (TCP)
-        bb.put((byte) IP.TCP_PROTOCOL);
+    /**
+     * Same as calculateChecksum(IP.IpAddress, IP.IpAddress, byte[], int, int), with the
+     * addresses as stored in IP.Packet.
+     */
+    public static short calculateChecksum(int srcAddr, int destAddr, byte[] packet, int offset, int tcpLength) {
+        // pseudo header, in network byte order
+        int src = swap(srcAddr);
+        int dest = swap(destAddr);
+        long sum = (src >>> 16) + (src & 0xFFFF)
+                + (dest >>> 16) + (dest & 0xFFFF)
+                + IP.TCP_PROTOCOL
+                + tcpLength;
+
+        int end = offset + tcpLength;
+        int i = offset;
+        for(; i < end - 1; i += 2){
+            sum += ((packet[i] & 0xFF) << 8) | (packet[i + 1] & 0xFF);
+        }
 
-        // set combined TCP header and data length in bytes
-        bb.putShort((short) tcpLength);
+        if(i < end){
+            /*
+                 odd number: if a segment contains an odd number of header and
+                 text octets to be checksummed, the last octet is padded on the
+                 right with zeros to form a 16 bit word for checksum purposes.
+                 The pad is not part of the segment.
+             */
+            sum += (packet[i] & 0xFF) << 8;
+        }
 
-        bb.clear();
+        // ones complement sum: add the carries back in
+        while ((sum >> 16) > 0) {
+            sum = (sum & 0xFFFF) + (sum >> 16);
+        }
 
-        return bb;
+        return (short)(~sum);
     }
 
     /**
@@ -0,0 +1,64 @@
+package nl.vu.cs.cn.tcp;
+
+/**
+ * CongestionControl decides how many bytes a connection may have in flight, next to
+ * the window the receiver advertises. The send path uses min(SND.WND, cwnd) as the
+ * effective send window.
+ *
+ * Implementations are notified of ACKs, losses, retransmission timeouts and idle
+ * periods by the segment and timeout handlers, and may be called from multiple threads.
+ */
+public interface CongestionControl {
+
+    /**
+     * New data was acknowledged while not in fast recovery.
+     * @param ackedBytes the number of bytes SND.UNA advanced
+     */
+    public void onAck(int ackedBytes);
+
+    /**
+     * A duplicate ACK arrived during fast recovery, so another segment has left the network.
+     */
+    public void onDuplicateAck();
+
+    /**
+     * Loss was detected through duplicate ACKs. The segment at SND.UNA is retransmitted
+     * and fast recovery is entered.
+     * @param bytesInFlight the number of bytes in flight when the loss was detected
+     */
+    public void onLoss(int bytesInFlight);
+
+    /**
+     * An ACK arrived during fast recovery that does not acknowledge all data that was
+     * in flight when recovery started.
+     * @param ackedBytes the number of bytes SND.UNA advanced
+     */
+    public void onPartialAck(int ackedBytes);
+
+    /**
+     * All data that was in flight when fast recovery started has been acknowledged.
+     */
+    public void onRecovery();
+
+    /**
+     * The retransmission timer of the oldest unacknowledged segment expired.
+     * @param bytesInFlight the number of bytes in flight when the timer expired
+     */
+    public void onRetransmissionTimeout(int bytesInFlight);
+
+    /**
+     * Nothing was sent for longer than the retransmission timeout, so the ACK clock
+     * has been lost.
+     */
+    public void onIdle();
+
+    /**
+     * @return the congestion window (cwnd) in bytes
+     */
+    public int getCongestionWindow();
+
+    /**
+     * @return the slow start threshold (ssthresh) in bytes
+     */
+    public int getSlowStartThreshold();
+}
@@ -0,0 +1,102 @@
+package nl.vu.cs.cn.tcp;
+
+/**
+ * NewReno congestion control (RFC 5681, RFC 6582).
+ *
+ * The congestion window starts at the initial window and doubles every round trip
+ * during slow start, until it reaches ssthresh. After that it grows by one segment per
+ * round trip (congestion avoidance, using appropriate byte counting). A loss detected
+ * by duplicate ACKs halves the window; a retransmission timeout resets it to a single
+ * segment.
+ */
+public class NewRenoCongestionControl implements CongestionControl {
+
+    // largest window TCP can use (with window scaling), keeps cwnd from overflowing
+    public static final int MAX_CONGESTION_WINDOW = 1 << 30;
+
+    private final int mss;          // sender maximum segment size
+    private final int initialWindow;
+
+    private int cwnd;               // congestion window
+    private int ssthresh;           // slow start threshold
+    private int bytesAcked;         // bytes acked since cwnd last grew during congestion avoidance
+
+    public NewRenoCongestionControl(int mss){
+        this.mss = mss;
+
+        // RFC 5681, section 3.1
+        if(mss > 2190){
+            initialWindow = 2 * mss;
+        } else if(mss > 1095){
+            initialWindow = 3 * mss;
+        } else {
+            initialWindow = 4 * mss;
+        }
+
+        cwnd = initialWindow;
+        ssthresh = MAX_CONGESTION_WINDOW;
+    }
+
+    public synchronized void onAck(int ackedBytes){
+        if(cwnd < ssthresh){
+            // slow start: grow by at most one segment per ACK
+            cwnd += Math.min(ackedBytes, mss);
+        } else {
+            // congestion avoidance: grow by one segment per window of acked data
+            bytesAcked += ackedBytes;
+            if(bytesAcked >= cwnd){
+                bytesAcked -= cwnd;
+                cwnd += mss;
+            }
+        }
+
+        cwnd = Math.min(cwnd, MAX_CONGESTION_WINDOW);
+    }
+
+    public synchronized void onDuplicateAck(){
+        // inflate the window for the segment that left the network
+        cwnd = Math.min(cwnd + mss, MAX_CONGESTION_WINDOW);
+    }
+
+    public synchronized void onLoss(int bytesInFlight){
+        ssthresh = Math.max(bytesInFlight / 2, 2 * mss);
+
+        // the three duplicate ACKs mean three segments left the network
+        cwnd = ssthresh + 3 * mss;
+        bytesAcked = 0;
+    }
+
+    public synchronized void onPartialAck(int ackedBytes){
+        // deflate by the amount of new data acked, and add back one segment
+        cwnd = Math.max(mss, cwnd - ackedBytes);
+        if(ackedBytes >= mss){
+            cwnd += mss;
+        }
+    }
+
+    public synchronized void onRecovery(){
+        // deflate the window
+        cwnd = ssthresh;
+    }
+
+    public synchronized void onRetransmissionTimeout(int bytesInFlight){
+        ssthresh = Math.max(bytesInFlight / 2, 2 * mss);
+
+        // loss window: restart with slow start
+        cwnd = mss;
+        bytesAcked = 0;
+    }
+
+    public synchronized void onIdle(){
+        // restart window
+        cwnd = Math.min(cwnd, initialWindow);
+    }
+
+    public synchronized int getCongestionWindow(){
+        return cwnd;
+    }
+
+    public synchronized int getSlowStartThreshold(){
+        return ssthresh;
+    }
+}
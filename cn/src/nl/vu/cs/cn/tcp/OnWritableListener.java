@@ -0,0 +1,15 @@
+package nl.vu.cs.cn.tcp;
+
+public interface OnWritableListener {
+
+    /**
+     * Called once when the free space in the send buffer rises to the send low-water mark
+     * after a write left less than that, or when the connection stops accepting writes
+     * while waiting for that. This is called from a callback thread that is shared by all
+     * connections, without holding any locks of the connection, so it may write. It should
+     * not block for long, since that delays the callbacks of other connections.
+     * @param space the free space in the send buffer in bytes, or -1 if the connection
+     *              does not accept writes anymore
+     */
+    public void onWritable(int space);
+}
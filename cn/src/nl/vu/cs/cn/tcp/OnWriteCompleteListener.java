@@ -0,0 +1,14 @@
+package nl.vu.cs.cn.tcp;
+
+public interface OnWriteCompleteListener {
+
+    /**
+     * Called once when all bytes of an asynchronous write have been acknowledged, or when
+     * the write failed because the connection was aborted. This is called from a callback
+     * thread that is shared by all connections, without holding any locks of the
+     * connection. It should not block for long, since that delays the callbacks of other
+     * connections.
+     * @param future
+     */
+    public void onWriteComplete(WriteFuture future);
+}
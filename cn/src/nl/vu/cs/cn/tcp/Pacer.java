@@ -0,0 +1,132 @@
+package nl.vu.cs.cn.tcp;
+
+import nl.vu.cs.cn.tcp.timeout.TimingWheel;
+
+/**
+ * Pacer spreads the segments of a connection over time with a token bucket, instead of
+ * sending a whole window back-to-back. Tokens (bytes) are added at the pacing rate, and a
+ * segment may only be sent when the bucket holds enough tokens for it.
+ *
+ * The pacing rate is either set by the user, or derived from the congestion window and
+ * the smoothed round-trip time: cwnd / SRTT, scaled by a factor so the window can still
+ * grow (the factors used by Linux). The bucket holds at least two segments, and enough
+ * tokens for one tick of the timing wheel, since the sender cannot be woken up any sooner.
+ */
+public class Pacer {
+
+    public static final double SLOW_START_FACTOR = 2.0;             // pacing rate factor during slow start
+    public static final double CONGESTION_AVOIDANCE_FACTOR = 1.2;   // pacing rate factor during congestion avoidance
+
+    private static final double MIN_RTT_MS = 1;      // lower bound of the SRTT used to derive the rate
+
+    private final int mss;
+
+    private long configuredRate;    // pacing rate set by the user in bytes/s, 0 to derive it
+    private long rate;              // current pacing rate in bytes/s, 0 if not paced
+    private double bucketSize;      // maximum number of tokens in bytes
+    private double tokens;          // available tokens in bytes
+    private long lastRefill;        // time tokens were last added in ns
+
+    // statistics
+    private int delayedSegments;    // number of segments that had to wait for tokens
+    private long delayTime;         // total time segments had to wait in ms
+
+    public Pacer(int mss){
+        this.mss = mss;
+    }
+
+    /**
+     * Set a fixed pacing rate.
+     * @param bytesPerSecond the rate, or 0 to derive the rate from cwnd / SRTT
+     */
+    public synchronized void setConfiguredRate(long bytesPerSecond){
+        configuredRate = Math.max(0, bytesPerSecond);
+    }
+
+    public synchronized long getConfiguredRate(){
+        return configuredRate;
+    }
+
+    /**
+     * Update the pacing rate. Should be called before every segment that is sent.
+     * @param cwnd the congestion window in bytes
+     * @param ssthresh the slow start threshold in bytes
+     * @param srttMs the smoothed round-trip time in ms, or a negative value if unknown
+     * @param now the current time in ns
+     */
+    public synchronized void update(int cwnd, int ssthresh, double srttMs, long now){
+        long newRate;
+        if(configuredRate > 0){
+            newRate = configuredRate;
+        } else if(srttMs < 0){
+            // no round-trip time measured yet, so there is nothing to derive a rate from
+            newRate = 0;
+        } else {
+            double factor = (cwnd < ssthresh) ? SLOW_START_FACTOR : CONGESTION_AVOIDANCE_FACTOR;
+            newRate = (long) (factor * cwnd * 1000 / Math.max(MIN_RTT_MS, srttMs));
+        }
+
+        if(newRate == rate){
+            return;
+        }
+
+        bucketSize = Math.max(2.0 * mss, (double) newRate * TimingWheel.TICK_MS / 1000);
+        if(rate == 0){
+            // pacing starts with a full bucket, and tokens are only added from now on
+            tokens = bucketSize;
+            lastRefill = now;
+        } else {
+            tokens = Math.min(tokens, bucketSize);
+        }
+        rate = newRate;
+    }
+
+    /**
+     * Take the tokens for a segment of len bytes, if available.
+     * @param len the length of the segment in bytes
+     * @param now the current time in ns
+     * @return 0 if the segment may be sent now, otherwise the time in ms until enough
+     *         tokens are available. No tokens are taken in that case.
+     */
+    public synchronized long consume(int len, long now){
+        if(rate == 0){
+            return 0;
+        }
+
+        tokens = Math.min(bucketSize, tokens + rate * ((now - lastRefill) / 1000000000.0));
+        lastRefill = now;
+
+        // a segment larger than the bucket can never be sent otherwise
+        double needed = Math.min(len, bucketSize);
+        if(tokens >= needed){
+            tokens -= needed;
+            return 0;
+        }
+
+        long delay = (long) Math.ceil((needed - tokens) * 1000 / rate);
+        delayedSegments++;
+        delayTime += delay;
+        return delay;
+    }
+
+    /**
+     * @return the current pacing rate in bytes/s, or 0 if the connection is not paced
+     */
+    public synchronized long getRate(){
+        return rate;
+    }
+
+    /**
+     * @return the number of segments that had to wait before they could be sent
+     */
+    public synchronized int getDelayedSegments(){
+        return delayedSegments;
+    }
+
+    /**
+     * @return the total time segments had to wait before they could be sent in ms
+     */
+    public synchronized long getDelayTime(){
+        return delayTime;
+    }
+}
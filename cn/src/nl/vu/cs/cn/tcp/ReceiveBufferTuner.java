@@ -0,0 +1,106 @@
+package nl.vu.cs.cn.tcp;
+
+/**
+ * ReceiveBufferTuner sizes the receive buffer of a connection to the bandwidth-delay
+ * product of the connection, like the dynamic right-sizing of Linux. The rate at which
+ * the user drains the buffer is measured every round trip, and the buffer grows to twice
+ * the number of bytes read per round trip, so the window does not limit the sender while
+ * its rate still grows. The buffer never grows beyond the maximum size.
+ *
+ * Once the connection has been idle (no data received or read) for IDLE_TIMEOUT_MS, the
+ * buffer may shrink back to the minimum size, and the measurement starts over.
+ */
+public class ReceiveBufferTuner {
+
+    public static final int IDLE_TIMEOUT_MS = 1000;    // time without activity after which the buffer shrinks
+
+    private static final double MIN_RTT_MS = 1;     // lower bound of the measurement period
+
+    private final int minSize;
+    private final int maxSize;
+
+    private int space;              // largest number of bytes read per round trip so far
+    private int copied;             // number of bytes read in the current measurement
+    private long measureStart;      // start of the current measurement in ms, 0 if none
+    private long lastActivity;      // time data was last received or read in ms
+
+    public ReceiveBufferTuner(int minSize, int maxSize){
+        this.minSize = minSize;
+        this.maxSize = Math.max(minSize, maxSize);
+    }
+
+    /**
+     * Record that data was received.
+     * @param now the current time in ms
+     */
+    public synchronized void onDataReceived(long now){
+        lastActivity = now;
+    }
+
+    /**
+     * Record that the user read data, and compute the size the buffer should have.
+     * @param bytes the number of bytes read
+     * @param now the current time in ms
+     * @param rttMs the smoothed round-trip time in ms, or a negative value if unknown
+     * @param capacity the current size of the buffer
+     * @return the size the buffer should grow to, or capacity if it should not grow
+     */
+    public synchronized int onRead(int bytes, long now, double rttMs, int capacity){
+        lastActivity = now;
+        if(measureStart == 0){
+            measureStart = now;
+            copied = bytes;
+            return capacity;
+        }
+
+        copied += bytes;
+        long elapsed = now - measureStart;
+        if(rttMs < 0 || elapsed < Math.max(MIN_RTT_MS, rttMs)){
+            return capacity;
+        }
+
+        // the number of bytes read per round trip during the measurement
+        int perRtt = (int) Math.min(Integer.MAX_VALUE, copied * Math.max(MIN_RTT_MS, rttMs) / elapsed);
+        measureStart = now;
+        copied = 0;
+
+        if(perRtt <= space){
+            return capacity;
+        }
+
+        space = perRtt;
+        return Math.max(capacity, Math.min(maxSize, 2 * perRtt));
+    }
+
+    /**
+     * @param now the current time in ms
+     * @return the time in ms until the connection is idle, or 0 if it is idle
+     */
+    public synchronized long getIdleDelay(long now){
+        return Math.max(0, lastActivity + IDLE_TIMEOUT_MS - now);
+    }
+
+    /**
+     * Record that the buffer shrank because the connection was idle. The rate is measured
+     * again when the user reads data.
+     */
+    public synchronized void onShrink(){
+        space = 0;
+        copied = 0;
+        measureStart = 0;
+    }
+
+    /**
+     * @return the size of the buffer of an idle connection
+     */
+    public int getMinSize(){
+        return minSize;
+    }
+
+    /**
+     * @return the largest size the buffer may grow to
+     */
+    public int getMaxSize(){
+        return maxSize;
+    }
+}
@@ -0,0 +1,91 @@
+package nl.vu.cs.cn.tcp;
+
+/**
+ * RttEstimator computes the retransmission timeout (RTO) of a connection from measured
+ * round-trip times, as described in RFC 6298. It keeps a smoothed round-trip time (SRTT)
+ * and the round-trip time variation (RTTVAR), and backs off exponentially on timeouts.
+ *
+ * Callers are responsible for Karn's rule: only segments that were never retransmitted
+ * should be used as RTT samples.
+ *
+ * The upper bound is 60 s by default, the least RFC 6298 (2.5) allows. It can be lowered
+ * per connection, so the tests see a connection abort after its retransmissions run
+ * out within seconds instead of minutes. A lower bound retransmits more aggressively
+ * than the RFC allows, so it should not be used on a real network.
+ */
+public class RttEstimator {
+
+    public static final int INITIAL_RTO_MS = 1000;      // RTO before the first RTT sample
+    public static final int MIN_RTO_MS = 200;           // lower bound of the RTO
+    public static final int MAX_RTO_MS = 60000;         // default upper bound of the RTO (also when backing off)
+
+    private static final double ALPHA = 1.0 / 8;        // gain of SRTT
+    private static final double BETA = 1.0 / 4;         // gain of RTTVAR
+    private static final int K = 4;
+    private static final double CLOCK_GRANULARITY_MS = 1;
+
+    private boolean hasSample;
+    private double srtt;        // smoothed round-trip time in ms
+    private double rttvar;      // round-trip time variation in ms
+    private int rto;            // retransmission timeout in ms
+    private int maxRto = MAX_RTO_MS;
+
+    public RttEstimator(){
+        rto = INITIAL_RTO_MS;
+    }
+
+    /**
+     * Update SRTT, RTTVAR and the RTO with a new round-trip time measurement.
+     * @param rttMs the measured round-trip time in ms
+     */
+    public synchronized void addSample(double rttMs){
+        if(!hasSample){
+            srtt = rttMs;
+            rttvar = rttMs / 2;
+            hasSample = true;
+        } else {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rttMs);
+            srtt = (1 - ALPHA) * srtt + ALPHA * rttMs;
+        }
+
+        rto = clamp(srtt + Math.max(CLOCK_GRANULARITY_MS, K * rttvar));
+    }
+
+    /**
+     * Double the RTO after a retransmission timeout.
+     */
+    public synchronized void backoff(){
+        rto = clamp(rto * 2.0);
+    }
+
+    /**
+     * Set the upper bound of the RTO, see the class comment.
+     * @param maxRtoMs the bound in ms, at least MIN_RTO_MS
+     */
+    public synchronized void setMaxRetransmissionTimeout(int maxRtoMs){
+        maxRto = Math.max(MIN_RTO_MS, maxRtoMs);
+        rto = clamp(rto);
+    }
+
+    public synchronized int getMaxRetransmissionTimeout(){
+        return maxRto;
+    }
+
+    /**
+     * @return the current retransmission timeout in ms
+     */
+    public synchronized int getRetransmissionTimeout(){
+        return rto;
+    }
+
+    /**
+     * @return the smoothed round-trip time in ms, or -1 if no sample has been taken yet
+     */
+    public synchronized double getSmoothedRtt(){
+        return hasSample ? srtt : -1;
+    }
+
+    private int clamp(double rto){
+        return (int) Math.min(maxRto, Math.max(MIN_RTO_MS, Math.ceil(rto)));
+    }
+}
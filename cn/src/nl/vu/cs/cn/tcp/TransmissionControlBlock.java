@@ -1,12 +1,9 @@
 package nl.vu.cs.cn.tcp;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.LinkedList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -14,11 +11,14 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import nl.vu.cs.cn.IP;
 import nl.vu.cs.cn.Log;
+import nl.vu.cs.cn.tcp.segment.ReadableSegment;
 import nl.vu.cs.cn.tcp.segment.RetransmissionSegment;
 import nl.vu.cs.cn.tcp.segment.Segment;
 import nl.vu.cs.cn.tcp.segment.SegmentReceiver;
+import nl.vu.cs.cn.tcp.segment.SegmentSender;
 import nl.vu.cs.cn.tcp.segment.SegmentUtil;
 import nl.vu.cs.cn.tcp.timeout.TimeoutHandler;
+import nl.vu.cs.cn.tcp.timeout.TimingWheel;
 
 /**
  * The Transmission Control Block in TCP keeps track of the state of a connection,
@@ -26,15 +26,23 @@ import nl.vu.cs.cn.tcp.timeout.TimeoutHandler;
  */
 public class TransmissionControlBlock {
 
-    private static final int RETRANSMIT_TIMEOUT_MS = 1000;    // number of time before retransmit
     public static final int MAX_RETRANSMITS = 10;           // maximum number of retransmits
+    public static final int DUPLICATE_ACK_THRESHOLD = 3;    // number of duplicate ACKs that trigger a fast retransmit
     public static final int TIME_WAIT_TIMEOUT_SEC = 5;     // number of time TIME WAIT should wait before entering CLOSE
+    public static final int DELAYED_ACK_TIMEOUT = 200;      // maximum time an ACK may be delayed in ms
+    public static final int DEFAULT_DELAYED_ACK_TIMEOUT = RttEstimator.MIN_RTO_MS / 2;  // stays below the RTO of the other side
+    public static final int DELAYED_ACK_SEGMENTS = 2;       // number of segments after which the ACK is sent right away
+    public static final int QUICK_ACK_SEGMENTS = 4;         // number of segments ACKed right away after out of order data
 
     public static final short IP_HEADER_SIZE = 20;           // size of IP header in bytes
     public static final short MAX_SEGMENT_SIZE = 8 * 1024 - IP_HEADER_SIZE;    // maximum packet size in bytes
+    public static final int MAX_WINDOW = 0xFFFF;            // largest window that fits in the window field of a segment
 
-    private static final int MAX_RETRANSMISSION_THREADS = 5;
+    public static final int SEND_BUFFER_SIZE = 64 * 1024;       // size of the transmission queue in bytes
+    public static final int RECEIVE_BUFFER_SIZE = 32 * 1024;    // initial (and minimum) size of the processing queue in bytes
+    public static final int MAX_RECEIVE_BUFFER_SIZE = 2 * MAX_WINDOW;   // size the processing queue may grow to in bytes
 
+    private static final long NO_DEADLINE = Long.MIN_VALUE;    // deadline of a wait without timeout
 
     private String TAG = "TCB";
 
@@ -54,7 +62,7 @@ public class TransmissionControlBlock {
 
     private boolean isServer;   // used for logging purposes
 
-    private State state;
+    private volatile State state;
     private final Lock stateLock = new ReentrantLock();
     private final Condition stateChanged = stateLock.newCondition();
 
@@ -68,35 +76,74 @@ public class TransmissionControlBlock {
     private long irs;               // initial receive sequence number
 
     // send sequence variables (note that window and urgent pointer info is not used)
-    private long snd_una;           // send - unacknowledged sequence number
-    private long snd_nxt;           // send - next sequence number
-    private short snd_wnd;          // send - window (offset of snd_una)
+    private volatile long snd_una;  // send - unacknowledged sequence number
+    private volatile long snd_nxt;  // send - next sequence number
+    private volatile int snd_wnd;   // send - window (offset of snd_una)
+    private long snd_wl1;           // segment sequence number used for last window update
+    private long snd_wl2;           // segment acknowledgment number used for last window update
 
     private Segment fin_una;        // unacknowledged FIN segment
 
+    private volatile boolean noDelay;   // true if Nagle's algorithm is disabled (TCP_NODELAY)
+    private volatile boolean cork;      // true if only full segments may be sent (TCP_CORK)
+
+    // fast retransmit and fast recovery variables (RFC 5681, RFC 6582)
+    private volatile int dupAcks;   // number of consecutive duplicate ACKs
+    private volatile boolean fastRecovery;  // true while recovering from a fast retransmit
+    private long recover;           // SND.NXT at the moment fast recovery was entered
+
+    // loss recovery after a retransmission timeout
+    private volatile long rtx_nxt = -1; // next sequence number to retransmit, -1 if not in loss recovery
+
 
     // receive sequence variables
     private long rcv_nxt;        // receive - next sequence number
-    private short rcv_wnd;      // receive - window
+    private volatile long rcv_adv;  // right edge of the last advertised receive window (RCV.NXT + RCV.WND)
 
-    private final ScheduledExecutorService executor;
+    private final TimingWheel timingWheel;     // shared by all connections
 
     private SegmentReceiver segmentReceiver;
 
-    private ConcurrentLinkedQueue<Byte> transmissionQueue;
-    private ConcurrentLinkedQueue<Byte> processingQueue;
+    private final ByteRingBuffer transmissionQueue;     // data that has been written, but not sent yet
+    private final Lock transmissionQueueLock = new ReentrantLock();
+    private final Condition hasSpaceForTransmission = transmissionQueueLock.newCondition();
+    private int pushLength;     // number of queued bytes that are sent without waiting for a full segment
+    private final LinkedList<WriteFuture> pendingWrites;    // ordered by sequence number, guarded by this
+    private int sendLowWatermark = 1;   // free space needed for the send buffer to be writable (SO_SNDLOWAT)
+    private OnWritableListener writableListener;
+    private boolean writableArmed;      // true if the listener is called once the send buffer is writable
+
+    private final ByteRingBuffer processingQueue;
     private final Lock processingQueueLock = new ReentrantLock();
     private final Condition hasDataForProcessing = processingQueueLock.newCondition();
+    private int lentLength;     // number of queued bytes lent to the user, which have not been released yet
+    private int receiveLowWatermark = 1;    // queued bytes needed to wake up readers (SO_RCVLOWAT)
+    private final ReceiveBufferTuner receiveBufferTuner;
+    private TimingWheel.Timeout receiveBufferTimeout;   // set while the processing queue has grown, guarded by this
 
-    private ConcurrentHashMap<RetransmissionSegment, ScheduledFuture> retransmissionMap;
+    private final LinkedList<RetransmissionSegment> retransmissionQueue;    // ordered by sequence number
     private final Lock retransmissionLock = new ReentrantLock();
     private final Condition retransmissionQueueChanged = retransmissionLock.newCondition();
+    private RetransmissionTimer retransmissionTimer;        // running while the retransmission queue is not empty, guarded by retransmissionLock
+    private int retransmissionTimeouts;                     // number of times the retransmission timer expired, guarded by retransmissionLock
 
     private final Lock allAckedLock = new ReentrantLock();
     private final Condition allSegmentsAcked = allAckedLock.newCondition();
 
+    private final RttEstimator rttEstimator;
+    private volatile CongestionControl congestionControl;
+    private final Pacer pacer;
+    private long lastSendTime;      // time new data was last sent in ms
+
     private TimeoutHandler timeoutHandler;
-    private ScheduledFuture timeWaitScheduledFuture;
+    private SegmentSender segmentSender;
+    private TimingWheel.Timeout timeWaitTimeout;
+
+    // delayed ACKs (RFC 1122 section 4.2.3.2), guarded by this
+    private int delayedAckSegments;     // number of received segments that have not been ACKed yet
+    private TimingWheel.Timeout delayedAckTimeout;
+    private int quickAcks;              // number of segments that are still ACKed right away
+    private volatile int delayedAckTime = DEFAULT_DELAYED_ACK_TIMEOUT;  // in ms, 0 if ACKs are not delayed
 
 
     /**
@@ -107,21 +154,27 @@ public class TransmissionControlBlock {
         iss = getInitialSendSequenceNumber();
         state = State.CLOSED;
 
-        executor = Executors.newScheduledThreadPool(MAX_RETRANSMISSION_THREADS);
+        timingWheel = TimingWheel.getInstance();
 
-        retransmissionMap = new ConcurrentHashMap<RetransmissionSegment, ScheduledFuture>();
-        transmissionQueue = new ConcurrentLinkedQueue<Byte>();
-        processingQueue = new ConcurrentLinkedQueue<Byte>();
+        retransmissionQueue = new LinkedList<RetransmissionSegment>();
+        transmissionQueue = new ByteRingBuffer(SEND_BUFFER_SIZE);
+        pendingWrites = new LinkedList<WriteFuture>();
+        processingQueue = new ByteRingBuffer(RECEIVE_BUFFER_SIZE);
+        receiveBufferTuner = new ReceiveBufferTuner(RECEIVE_BUFFER_SIZE, MAX_RECEIVE_BUFFER_SIZE);
 
+        rttEstimator = new RttEstimator();
+        congestionControl = new NewRenoCongestionControl(MAX_SEGMENT_SIZE);
+        pacer = new Pacer(MAX_SEGMENT_SIZE);
         timeoutHandler = new TimeoutHandler(ip, this);
 
         // set isServer, used to improved logging statements
         this.isServer = isServer;
         TAG += (isServer) ? " [server]" : " [client]";
 
-        // implementation specific settings: window is always max size of one packet
-        snd_wnd = MAX_SEGMENT_SIZE;
-        rcv_wnd = MAX_SEGMENT_SIZE;
+        segmentSender = new SegmentSender(ip, this);
+
+        // nothing may be sent until the window of the other side is known
+        snd_wnd = 0;
     }
 
     /**
@@ -143,6 +196,17 @@ public class TransmissionControlBlock {
         } finally {
             stateLock.unlock();
         }
+
+        if(state == State.CLOSED){
+            // data that has not been acknowledged by now never will be
+            clearTransmissionQueue();
+        }
+
+        // writers waiting for space in the send buffer should re-check whether sending is still allowed
+        signalTransmissionQueueChanged();
+
+        // and readers whether data may still arrive
+        stopWaitingForDataToProcess();
     }
 
     /**
@@ -161,27 +225,71 @@ public class TransmissionControlBlock {
     /**
      * Wait until the TCP state changes to one of the acceptable states
      * @param states
+     * @return true if and only if the state is one of the acceptable states, which is
+     *         only false if the thread was interrupted
+     */
+    public boolean waitForStates(TransmissionControlBlock.State... states){
+        return waitForStates(0, states);
+    }
+
+    /**
+     * Wait until the TCP state changes to one of the acceptable states, or the timeout
+     * expires. Stops waiting when the thread is interrupted, leaving it interrupted.
+     * @param timeout the maximum time to wait in ms, or 0 to wait without a timeout
+     * @param states
+     * @return true if and only if the state is one of the acceptable states
      */
-    public void waitForStates(TransmissionControlBlock.State... states){
+    public boolean waitForStates(int timeout, TransmissionControlBlock.State... states){
         ArrayList<State> acceptableStates =
                 new ArrayList<TransmissionControlBlock.State>(Arrays.asList(states));
+        long deadline = getDeadline(timeout);
 
         stateLock.lock();
         try {
             while(!acceptableStates.contains(state)){
-                try {
-                    stateChanged.await();
-                } catch (InterruptedException e) {
-                    // ignore, wait again
+                if(!await(stateChanged, deadline)){
+                    Log.v(TAG, "Stopped waiting for states " + acceptableStates + " in state " + state);
+                    break;
                 }
             }
 
-            // condition has been met, done waiting!
+            return acceptableStates.contains(state);
         } finally {
             stateLock.unlock();
         }
     }
 
+    /**
+     * @param timeout in ms, or 0 for no timeout
+     * @return the deadline for await(), or NO_DEADLINE if there is no timeout
+     */
+    private static long getDeadline(int timeout){
+        return (timeout > 0) ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : NO_DEADLINE;
+    }
+
+    /**
+     * Wait until the condition is signalled, the deadline passes or the thread is
+     * interrupted. Should be called while holding the lock of the condition.
+     * @param condition
+     * @param deadline in ns (see System.nanoTime()), or NO_DEADLINE
+     * @return false if and only if the deadline passed or the thread was interrupted, in
+     *         which case the interrupt status of the thread is set again
+     */
+    private static boolean await(Condition condition, long deadline){
+        try {
+            if(deadline == NO_DEADLINE){
+                condition.await();
+                return true;
+            }
+
+            long nanos = deadline - System.nanoTime();
+            return nanos > 0 && condition.awaitNanos(nanos) > 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     /**
      * Wait until the specified segment has been completely ACKed.
      *
@@ -194,10 +302,9 @@ public class TransmissionControlBlock {
             int i;
             for(i=0; i<MAX_RETRANSMITS+1 && !SegmentUtil.isAcked(segment, getSendUnacknowledged()); i++){
                 Log.v(TAG, "Checking if packet is acked... " + segment.getSeq() + ":" + segment.getLastSeq());
-                try {
-                    retransmissionQueueChanged.await();
-                } catch (InterruptedException e) {
-                    // ignore, wait again
+                if(!await(retransmissionQueueChanged, NO_DEADLINE)){
+                    // interrupted
+                    break;
                 }
             }
 
@@ -213,38 +320,84 @@ public class TransmissionControlBlock {
     }
 
     /**
-     * Wait until the retransmission queue is empty
-     *
+     * The usable window may have grown, e.g. after an ACK or after the congestion window
+     * grew, so send the data that is waiting in the transmission queue.
+     */
+    public void signalSendWindowChanged(){
+        segmentSender.transmit();
+    }
+
+    /**
+     * Check whether the user may write data in the current state
+     * @return
+     */
+    private boolean canSend(){
+        return state == State.ESTABLISHED || state == State.CLOSE_WAIT;
+    }
+
+    /**
+     * Check whether data may still arrive in the current state, which is no longer the case
+     * once a FIN has been received or the connection is closed
+     * @return
+     */
+    private boolean canReceive(){
+        return state == State.ESTABLISHED || state == State.FIN_WAIT_1 || state == State.FIN_WAIT_2;
+    }
+
+    /**
+     * Check whether data in the transmission queue may be sent in the current state. A
+     * close() waits for the written data to be acknowledged before it sends a FIN, so
+     * queued data is sent until the FIN has been sent.
      * @return
      */
-    public void waitUntilAllAcknowledged(){
+    public boolean canTransmit(){
+        switch(state){
+            case ESTABLISHED:
+            case CLOSE_WAIT:
+                return true;
+            case FIN_WAIT_1:
+            case CLOSING:
+                return fin_una == null;
+            default:
+                return false;
+        }
+    }
+
+    public SegmentSender getSegmentSender(){
+        return segmentSender;
+    }
+
+    /**
+     * Wait until all written data has been sent and acknowledged. The segment sender adds
+     * a segment to the retransmission queue before its data is removed from the
+     * transmission queue, so the queues are checked in this order.
+     * @return true if and only if all data has been acknowledged, which is only false if
+     *         the thread was interrupted
+     */
+    public boolean waitUntilAllAcknowledged(){
         allAckedLock.lock();
         try {
-            if(retransmissionMap.size() > 0){
-                for(RetransmissionSegment retrans : retransmissionMap.keySet()){
-                    Log.e(TAG, "Segment not acked: ("+retrans.getSegment().getSeq()+":"+retrans.getSegment().getLastSeq()+")");
-                }
-            }
+            logUnacknowledgedSegments();
 
-            while(retransmissionMap.size() > 0){
-                try {
-                    allSegmentsAcked.await();
-                } catch (InterruptedException e) {
-                    // ignore, wait again
-                }
-
-                if(retransmissionMap.size() > 0){
-                    for(RetransmissionSegment retrans : retransmissionMap.keySet()){
-                        Log.e(TAG, "Segment not acked: ("+retrans.getSegment().getSeq()+":"+retrans.getSegment().getLastSeq()+")");
-                    }
+            while(hasDataToTransmit() || hasDataToRetransmit()){
+                if(!await(allSegmentsAcked, NO_DEADLINE)){
+                    return false;
                 }
 
+                logUnacknowledgedSegments();
             }
+            return true;
         } finally {
             allAckedLock.unlock();
         }
     }
 
+    private void logUnacknowledgedSegments(){
+        for(Segment segment : getUnacknowledgedSegments()){
+            Log.e(TAG, "Segment not acked: ("+segment.getSeq()+":"+segment.getLastSeq()+")");
+        }
+    }
+
 
     public boolean isServer() {
         return isServer;
@@ -349,6 +502,11 @@ public class TransmissionControlBlock {
      */
     public synchronized void setSendUnacknowledged(long snd_una){
         this.snd_una = snd_una % Integer.MAX_VALUE;
+
+        if(rtx_nxt != -1 && !SegmentUtil.inWindow(this.snd_una, rtx_nxt, snd_nxt+1)){
+            // the ACK covers data that was not retransmitted yet, so it did arrive
+            rtx_nxt = this.snd_una;
+        }
     }
 
     /**
@@ -384,18 +542,128 @@ public class TransmissionControlBlock {
     }
 
     /**
-     * Set send window
+     * Set the send window, and the segment it was taken from.
      * @param snd_wnd
-     * @return
+     * @param wl1 the sequence number of the segment
+     * @param wl2 the acknowledgment number of the segment
      */
-    public void setSendWindow(short snd_wnd){
+    public synchronized void setSendWindow(int snd_wnd, long wl1, long wl2){
         this.snd_wnd = snd_wnd;
+        this.snd_wl1 = wl1;
+        this.snd_wl2 = wl2;
+    }
+
+    /**
+     * Update the send window from a segment with an acceptable ACK, unless the window was
+     * last taken from a more recent segment (SND.WL1 > SEG.SEQ, or SND.WL1 = SEG.SEQ and
+     * SND.WL2 > SEG.ACK), since an old segment could otherwise shrink the window (RFC 793).
+     * @param segment
+     * @return true if and only if the send window changed
+     */
+    public synchronized boolean updateSendWindow(ReadableSegment segment){
+        boolean newer = (segment.getSeq() == snd_wl1)
+                ? !SegmentUtil.inWindow((segment.getAck() + 1) % Integer.MAX_VALUE, snd_wl2, (segment.getAck() + Integer.MAX_VALUE / 2) % Integer.MAX_VALUE)
+                : SegmentUtil.inWindow((snd_wl1 + 1) % Integer.MAX_VALUE, segment.getSeq(), (snd_wl1 + Integer.MAX_VALUE / 2) % Integer.MAX_VALUE);
+        if(!newer){
+            return false;
+        }
+
+        int oldWindow = snd_wnd;
+        setSendWindow(segment.getWindow(), segment.getSeq(), segment.getAck());
+        if(snd_wnd != oldWindow){
+            Log.v(TAG, "Send window changed from " + oldWindow + " to " + snd_wnd);
+            return true;
+        }
+        return false;
     }
 
-    public short getSendWindow(){
+    public int getSendWindow(){
         return snd_wnd;
     }
 
+    /**
+     * Get the number of bytes that have been sent, but are not yet acknowledged
+     * (SND.NXT - SND.UNA).
+     * @return
+     */
+    public int getBytesInFlight(){
+        return (int) ((snd_nxt - snd_una + Integer.MAX_VALUE) % Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the number of bytes that can be sent without exceeding the send window
+     * and the congestion window.
+     * @return
+     */
+    public int getUsableWindow(){
+        int cwnd = congestionControl.getCongestionWindow();
+        if(!fastRecovery){
+            // limited transmit (RFC 3042): the first two duplicate ACKs each allow one new segment
+            cwnd += Math.min(dupAcks, DUPLICATE_ACK_THRESHOLD - 1) * MAX_SEGMENT_SIZE;
+        }
+        int bytesInFlight = getBytesInFlight();
+        long rtxNext = rtx_nxt;
+        if(rtxNext != -1){
+            // in loss recovery the data after RTX.NXT is assumed to have left the network
+            bytesInFlight = (int) ((rtxNext - snd_una + Integer.MAX_VALUE) % Integer.MAX_VALUE);
+        }
+        return Math.max(0, Math.min(snd_wnd, cwnd) - bytesInFlight);
+    }
+
+    /**
+     * Disable or enable Nagle's algorithm for this connection.
+     * @param noDelay true to send small segments while data is in flight
+     */
+    public void setNoDelay(boolean noDelay){
+        this.noDelay = noDelay;
+    }
+
+    public boolean getNoDelay(){
+        return noDelay;
+    }
+
+    /**
+     * Cork or uncork this connection. While corked, only full segments are sent.
+     * @param cork
+     */
+    public void setCork(boolean cork){
+        this.cork = cork;
+    }
+
+    public boolean getCork(){
+        return cork;
+    }
+
+    /**
+     * Replace the congestion control algorithm of this connection.
+     * @param congestionControl
+     */
+    public void setCongestionControl(CongestionControl congestionControl){
+        this.congestionControl = congestionControl;
+        signalSendWindowChanged();
+    }
+
+    public CongestionControl getCongestionControl(){
+        return congestionControl;
+    }
+
+    public Pacer getPacer(){
+        return pacer;
+    }
+
+    /**
+     * Should be called right before new data is sent. If the connection has been idle
+     * for longer than the retransmission timeout, congestion control is notified.
+     */
+    public void onSendData(){
+        long now = System.currentTimeMillis();
+        if(lastSendTime > 0 && getBytesInFlight() == 0 && now - lastSendTime > getRetransmissionTimeout()){
+            Log.v(TAG, "Connection was idle for " + (now - lastSendTime) + " ms");
+            congestionControl.onIdle();
+        }
+        lastSendTime = now;
+    }
+
     /**
      * Advance receive next sequence number by len
      * @param len
@@ -410,6 +678,8 @@ public class TransmissionControlBlock {
      */
     public void setReceiveNext(long rcv_nxt){
         this.rcv_nxt = rcv_nxt % Integer.MAX_VALUE;
+        // no window has been advertised for the new sequence space yet
+        this.rcv_adv = this.rcv_nxt;
     }
 
     /**
@@ -421,11 +691,55 @@ public class TransmissionControlBlock {
     }
 
     /**
-     * Get receive window.
+     * Get receive window, which is the free space in the processing queue.
      * @return
      */
     public int getReceiveWindow(){
-        return rcv_wnd;
+        return Math.min(MAX_WINDOW, getProcessingQueueSpace());
+    }
+
+    /**
+     * Get the receive window to advertise in a segment that is sent, and remember its
+     * right edge. To avoid the silly window syndrome (RFC 1122 section 4.2.3.3), the right
+     * edge is only moved when it can move by at least a full segment or half the buffer.
+     * Since the free space only shrinks as RCV.NXT advances, it never moves to the left.
+     * @return the receive window
+     */
+    public int advertiseReceiveWindow(){
+        int window = getReceiveWindow();
+        int advertised = getAdvertisedReceiveWindow();
+        if(advertised <= window && window - advertised < getWindowUpdateThreshold()){
+            window = advertised;
+        }
+
+        rcv_adv = (rcv_nxt + window) % Integer.MAX_VALUE;
+        return window;
+    }
+
+    /**
+     * Check whether a window update should be sent after the user read data. That is the
+     * case when the window the other side knows of is too small for a full segment, and
+     * reading allows the right edge of the window to move.
+     * @return
+     */
+    public boolean shouldSendWindowUpdate(){
+        int advertised = getAdvertisedReceiveWindow();
+        return advertised < MAX_SEGMENT_SIZE - Segment.HEADER_SIZE
+                && getReceiveWindow() - advertised >= getWindowUpdateThreshold();
+    }
+
+    /**
+     * @return the part of the last advertised receive window that has not been used yet
+     */
+    private int getAdvertisedReceiveWindow(){
+        return (int) ((rcv_adv - rcv_nxt + Integer.MAX_VALUE) % Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the minimum number of bytes the right edge of the receive window moves
+     */
+    private int getWindowUpdateThreshold(){
+        return Math.min(RECEIVE_BUFFER_SIZE / 2, MAX_SEGMENT_SIZE - Segment.HEADER_SIZE);
     }
 
     /**
@@ -447,244 +761,1161 @@ public class TransmissionControlBlock {
 
 
     ////////////////////////
-    // Data methods
+    // Fast retransmit methods
     ////////////////////////
 
     /**
-     * Add data to the transmission queue.
-     * @param buf
-     * @param offset
-     * @param len
-     * @return number of bytes added. This is always equal to len.
+     * Count a duplicate ACK.
+     * @return the number of consecutive duplicate ACKs, including this one
+     */
+    public int increaseDuplicateAcks(){
+        return ++dupAcks;
+    }
+
+    /**
+     * Reset the duplicate ACK counter, should be called when new data is ACKed.
+     */
+    public void resetDuplicateAcks(){
+        dupAcks = 0;
+    }
+
+    /**
+     * Enter fast recovery. Recovery ends when all data sent up to now (SND.NXT) is ACKed.
+     */
+    public void enterFastRecovery(){
+        fastRecovery = true;
+        recover = snd_nxt;
+    }
+
+    /**
+     * Leave fast recovery and reset the duplicate ACK counter.
+     */
+    public void exitFastRecovery(){
+        fastRecovery = false;
+        dupAcks = 0;
+    }
+
+    public boolean isInFastRecovery(){
+        return fastRecovery;
+    }
+
+    /**
+     * Get the sequence number that has to be ACKed before fast recovery ends.
+     * @return
+     */
+    public long getRecoveryPoint(){
+        return recover;
+    }
+
+    /**
+     * Enter loss recovery after a retransmission timeout. The segment at SND.UNA has been
+     * resent already. The segments after it are resent by the SegmentSender when the
+     * usable window allows, as if they were never sent (go-back-N). Loss recovery ends
+     * when everything up to SND.NXT has been resent.
+     * @param rtx_nxt the sequence number after the resent segment
+     */
+    public synchronized void enterLossRecovery(long rtx_nxt){
+        this.rtx_nxt = rtx_nxt % Integer.MAX_VALUE;
+    }
+
+    public boolean isInLossRecovery(){
+        return rtx_nxt != -1;
+    }
+
+    /**
+     * Get the next segment to resend in loss recovery. Loss recovery ends if there is none.
+     * @return the segment, or null if all segments have been resent or not in loss recovery
      */
-    public int queueDataForTransmission(byte[] buf, int offset, int len){
-        int i;
-        for(i=0; i<len; i++){
-            transmissionQueue.add(buf[offset+i]);
+    public synchronized RetransmissionSegment getSegmentToRetransmit(){
+        if(rtx_nxt == -1){
+            return null;
         }
-        return i;
+
+        retransmissionLock.lock();
+        try {
+            for(RetransmissionSegment segment : retransmissionQueue){
+                if(!SegmentUtil.isAcked(segment.getSegment(), rtx_nxt)){
+                    return segment;
+                }
+            }
+        } finally {
+            retransmissionLock.unlock();
+        }
+
+        Log.v(TAG, "All lost segments have been resent, leaving loss recovery");
+        rtx_nxt = -1;
+        return null;
     }
 
     /**
-     * Check whether or not there is data to transmit.
-     * @return true if and only if there is data queued to transmit. False otherwise.
+     * Should be called when a segment has been resent in loss recovery.
+     * @param segment
      */
-    public boolean hasDataToTransmit(){
-        return transmissionQueue.size() > 0;
+    public synchronized void onSegmentRetransmitted(Segment segment){
+        rtx_nxt = (segment.getSeq() + segment.getLen()) % Integer.MAX_VALUE;
     }
 
+
+
+    ////////////////////////
+    // Data methods
+    ////////////////////////
+
     /**
-     * Add data to the processing queue.
+     * Add data to the transmission queue. The returned future completes when all of the
+     * added data has been acknowledged, or fails when the connection is aborted first.
      * @param buf
      * @param offset
      * @param len
-     * @return number of bytes added to the queue. This is always equal to len
+     * @return the future of the write. Its length is less than len if the queue is full. If
+     *         the user may not write in the current state, nothing is added and the future
+     *         has already failed.
      */
-    public int queueDataForProcessing(byte[] buf, int offset, int len){
-        int i;
-        for(i=0; i<len; i++){
-            processingQueue.add(buf[offset+i]);
+    public synchronized WriteFuture queueDataForTransmission(byte[] buf, int offset, int len){
+        if(!canSend()){
+            return failedWrite();
         }
 
-        // notify threads waiting for data to process
-        processingQueueLock.lock();
+        WriteFuture future;
+        transmissionQueueLock.lock();
         try {
-            hasDataForProcessing.signalAll();
+            future = new WriteFuture(getTransmissionQueueEnd(), transmissionQueue.put(buf, offset, len));
+            armWritableListener();
         } finally {
-            processingQueueLock.unlock();
+            transmissionQueueLock.unlock();
         }
 
-        return i;
+        return addPendingWrite(future);
     }
 
     /**
-     * Check whether or not there is data to process.
-     * @return true if and only if there is data queued to transmit. False otherwise
+     * Add the remaining bytes of the buffers, in order, to the transmission queue. The data is
+     * copied from the buffers into the queue directly, and the position of each buffer is
+     * advanced by the number of bytes added.
+     * @param srcs
+     * @return the future of the write. Its length is less than the number of remaining bytes
+     *         if the queue is full. If the user may not write in the current state, nothing
+     *         is added and the future has already failed.
      */
-    public boolean hasDataToProcess(){
-        processingQueueLock.lock();
+    public synchronized WriteFuture queueDataForTransmission(ByteBuffer[] srcs){
+        if(!canSend()){
+            return failedWrite();
+        }
+
+        WriteFuture future;
+        transmissionQueueLock.lock();
         try {
-            return processingQueue.size() > 0;
+            long seq = getTransmissionQueueEnd();
+            int added = 0;
+            for(ByteBuffer src : srcs){
+                added += transmissionQueue.put(src);
+                if(src.hasRemaining()){
+                    // the queue is full
+                    break;
+                }
+            }
+            future = new WriteFuture(seq, added);
+            armWritableListener();
         } finally {
-            processingQueueLock.unlock();
+            transmissionQueueLock.unlock();
         }
+
+        return addPendingWrite(future);
     }
 
     /**
-     * Block until there is data to process
+     * The queued data directly follows SND.NXT, as everything before it has been sent.
+     * @return the sequence number of the next byte that is added to the transmission queue
      */
-    public void waitForDataToProcess(){
-        processingQueueLock.lock();
+    private long getTransmissionQueueEnd(){
+        return (snd_nxt + transmissionQueue.size()) % Integer.MAX_VALUE;
+    }
+
+    private WriteFuture failedWrite(){
+        WriteFuture future = new WriteFuture(snd_nxt, 0);
+        future.fail();
+        return future;
+    }
+
+    private WriteFuture addPendingWrite(WriteFuture future){
+        if(future.getLength() == 0){
+            // nothing was copied, so there is nothing to wait for
+            future.completeEmpty();
+        } else {
+            pendingWrites.add(future);
+        }
+        return future;
+    }
 
+    /**
+     * Block until there is space in the transmission queue.
+     * @return the number of bytes that can be added, or 0 if the user may not write in
+     *         the current state (anymore) or the thread was interrupted
+     */
+    public int waitForTransmissionQueueSpace(){
+        transmissionQueueLock.lock();
         try {
-            while(!hasDataToProcess()){
-                try {
-                    hasDataForProcessing.await();
-                } catch (InterruptedException e) {
-                    // ignore, wait again
+            while(canSend() && transmissionQueue.free() == 0){
+                if(!await(hasSpaceForTransmission, NO_DEADLINE)){
+                    return 0;
                 }
             }
+
+            return canSend() ? transmissionQueue.free() : 0;
         } finally {
-            processingQueueLock.unlock();
+            transmissionQueueLock.unlock();
         }
     }
 
     /**
-     * Release all threads that are waiting for data to process
+     * Set the send low-water mark (SO_SNDLOWAT): the free space the send buffer needs before
+     * it is writable.
+     * @param bytes the low-water mark, which is clamped to [1, SEND_BUFFER_SIZE]
      */
-    public void stopWaitingForDataToProcess(){
-        processingQueueLock.lock();
+    public void setSendLowWatermark(int bytes){
+        transmissionQueueLock.lock();
         try {
-            hasDataForProcessing.signalAll();
+            sendLowWatermark = Math.max(1, Math.min(SEND_BUFFER_SIZE, bytes));
+            armWritableListener();
+            hasSpaceForTransmission.signalAll();
         } finally {
-            processingQueueLock.unlock();
+            transmissionQueueLock.unlock();
+        }
+    }
+
+    public int getSendLowWatermark(){
+        transmissionQueueLock.lock();
+        try {
+            return sendLowWatermark;
+        } finally {
+            transmissionQueueLock.unlock();
         }
     }
 
     /**
-     * Write maxlen bytes of data into buf.
-     * @param buf
-     * @param offset
-     * @param maxlen
-     * @return the number of bytes written to buf
+     * Set the listener that is called when the send buffer becomes writable. If the send
+     * buffer is writable already, the listener is called right away (on the callback thread).
+     * @param listener the listener, or null to remove it
      */
-    public int getDataToProcess(byte[] buf, int offset, int maxlen){
-        int len = Math.min(maxlen, processingQueue.size());
-        for(int i=0; i<len; i++){
-            buf[offset+i] = processingQueue.remove();
+    public void setOnWritableListener(OnWritableListener listener){
+        transmissionQueueLock.lock();
+        try {
+            writableListener = listener;
+            writableArmed = true;
+        } finally {
+            transmissionQueueLock.unlock();
         }
-        return len;
-    }
 
-    
-    ////////////////////////
-    // 'Timeout' methods
-    ////////////////////////
+        notifyWritable();
+    }
 
     /**
-     * Clear the retransmission queue so nothing is retransmitted anymore. Should only
-     * be called when entering the TIME_WAIT state.
+     * Call the writable listener if the send buffer has become writable since it was armed.
+     * The listener is called on the callback thread, after the locks have been released,
+     * since it may write.
      */
-    public void clearRetransmissionQueue(){
-        retransmissionMap.clear();
+    public void notifyWritable(){
+        final OnWritableListener listener;
+        final int space;
+        transmissionQueueLock.lock();
+        try {
+            space = getWritableSpace();
+            if(!writableArmed || writableListener == null || space == 0){
+                return;
+            }
+
+            writableArmed = false;
+            listener = writableListener;
+        } finally {
+            transmissionQueueLock.unlock();
+        }
+
+        CallbackExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onWritable(space);
+            }
+        });
     }
 
     /**
-     * Add a segment to the retransmission queue and start a timer to check if the ACK
-     * timed out.
-     *
-     * @param retransmissionSegment
+     * Block until the send buffer is writable, or the timeout expires.
+     * @param timeout
+     * @param unit
+     * @return the free space in the send buffer, which is at least the send low-water mark,
+     *         0 if the timeout expired or the thread was interrupted first, or -1 if the user
+     *         may not write in the current state (anymore)
      */
-    public void addToRetransmissionQueue(final RetransmissionSegment retransmissionSegment){
-        // only segments with length > 0 (so either contains data, SYN of FIN) needs to be retransmitted
-        if(retransmissionSegment.getSegment().getLen() > 0){
-            ScheduledFuture task = executor.schedule(new Runnable() {
-                @Override
-                public void run() {
-                    timeoutHandler.onRetransmissionTimeout(retransmissionSegment);
+    public int waitUntilWritable(long timeout, TimeUnit unit){
+        transmissionQueueLock.lock();
+        try {
+            long nanos = unit.toNanos(timeout);
+            if(nanos <= 0){
+                return getWritableSpace();
+            }
+
+            long deadline = System.nanoTime() + nanos;
+            int space;
+            while((space = getWritableSpace()) == 0){
+                if(!await(hasSpaceForTransmission, deadline)){
+                    return getWritableSpace();
                 }
-            }, RETRANSMIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }
 
-            retransmissionMap.put(retransmissionSegment, task);
+            return space;
+        } finally {
+            transmissionQueueLock.unlock();
         }
     }
 
     /**
-     * Remove all segments from the retransmission queue which have been ACKed by ack
-     * @param ack
+     * Should be called while holding the transmission queue lock.
+     * @return the free space in the send buffer if it is at least the send low-water mark,
+     *         -1 if the user may not write in the current state, and 0 otherwise
      */
-    public void removeFromRetransmissionQueue(long ack){
-        int numRemoves = 0;
-        for(RetransmissionSegment segment : retransmissionMap.keySet()){
-            if(SegmentUtil.isAcked(segment.getSegment(), ack)){
-                retransmissionMap.remove(segment).cancel(true);
-                Log.v(TAG, "Removed segment " + segment.getSegment().getSeq() + " from retransmission queue");
-                numRemoves++;
+    private int getWritableSpace(){
+        if(!canSend()){
+            return -1;
+        }
+
+        int space = transmissionQueue.free();
+        return (space >= sendLowWatermark) ? space : 0;
+    }
+
+    /**
+     * Arm the writable listener if the send buffer is not writable. Should be called while
+     * holding the transmission queue lock.
+     */
+    private void armWritableListener(){
+        if(getWritableSpace() == 0){
+            writableArmed = true;
+        }
+    }
+
+    /**
+     * Copy at most maxlen bytes from the start of the transmission queue into buf, without
+     * removing them from the queue.
+     * @param buf
+     * @param offset
+     * @param maxlen
+     * @return the number of bytes copied into buf
+     */
+    public int peekDataToTransmit(byte[] buf, int offset, int maxlen){
+        return peekDataToTransmit(0, buf, offset, maxlen);
+    }
+
+    /**
+     * Copy at most maxlen bytes, starting position bytes after the start of the transmission
+     * queue, into buf, without removing them from the queue.
+     * @param position
+     * @param buf
+     * @param offset
+     * @param maxlen
+     * @return the number of bytes copied into buf
+     */
+    public int peekDataToTransmit(int position, byte[] buf, int offset, int maxlen){
+        transmissionQueueLock.lock();
+        try {
+            return transmissionQueue.peek(position, buf, offset, maxlen);
+        } finally {
+            transmissionQueueLock.unlock();
+        }
+    }
+
+    /**
+     * Mark all data in the transmission queue to be sent as soon as the window allows,
+     * even if it does not fill a segment.
+     */
+    public void pushQueuedData(){
+        transmissionQueueLock.lock();
+        try {
+            pushLength = transmissionQueue.size();
+        } finally {
+            transmissionQueueLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes at the start of the transmission queue that have been pushed
+     */
+    public int getPushLength(){
+        transmissionQueueLock.lock();
+        try {
+            return pushLength;
+        } finally {
+            transmissionQueueLock.unlock();
+        }
+    }
+
+    /**
+     * Remove len bytes that have been sent from the start of the transmission queue.
+     * @param len
+     */
+    public void removeTransmittedData(int len){
+        transmissionQueueLock.lock();
+        try {
+            transmissionQueue.skip(len);
+            pushLength = Math.max(0, pushLength - len);
+            hasSpaceForTransmission.signalAll();
+        } finally {
+            transmissionQueueLock.unlock();
+        }
+    }
+
+    /**
+     * Drop all data that has not been sent, and fail the writes that have not been
+     * acknowledged. Called when the connection is closed or aborted.
+     */
+    private synchronized void clearTransmissionQueue(){
+        transmissionQueueLock.lock();
+        try {
+            transmissionQueue.clear();
+            pushLength = 0;
+        } finally {
+            transmissionQueueLock.unlock();
+        }
+
+        WriteFuture future;
+        while((future = pendingWrites.poll()) != null){
+            Log.w(TAG, "Write of " + future.getLength() + " bytes at " + future.getSeq() + " was not acknowledged");
+            future.fail();
+        }
+
+        signalRetransmissionQueueChanged();
+        notifyWritable();
+    }
+
+    /**
+     * Complete all writes which have been ACKed by ack.
+     * @param ack
+     */
+    private synchronized void completeWrites(long ack){
+        WriteFuture future;
+        while((future = pendingWrites.peek()) != null && SegmentUtil.isAcked(future.getSeq(), ack, future.getLength())){
+            pendingWrites.poll();
+            future.complete();
+        }
+    }
+
+    /**
+     * Wake up all threads waiting for space in the transmission queue
+     */
+    private void signalTransmissionQueueChanged(){
+        transmissionQueueLock.lock();
+        try {
+            hasSpaceForTransmission.signalAll();
+        } finally {
+            transmissionQueueLock.unlock();
+        }
+    }
+
+    /**
+     * Check whether or not there is data to transmit.
+     * @return true if and only if there is data queued to transmit. False otherwise.
+     */
+    public boolean hasDataToTransmit(){
+        transmissionQueueLock.lock();
+        try {
+            return !transmissionQueue.isEmpty();
+        } finally {
+            transmissionQueueLock.unlock();
+        }
+    }
+
+    /**
+     * Add data to the processing queue.
+     * @param buf
+     * @param offset
+     * @param len
+     * @return number of bytes added to the queue. This is less than len if the queue is full.
+     */
+    public int queueDataForProcessing(byte[] buf, int offset, int len){
+        processingQueueLock.lock();
+        try {
+            int added = processingQueue.put(buf, offset, len);
+            receiveBufferTuner.onDataReceived(System.currentTimeMillis());
+
+            // notify threads waiting for data to process, once there is enough of it
+            if(isReadable()){
+                hasDataForProcessing.signalAll();
             }
+
+            return added;
+        } finally {
+            processingQueueLock.unlock();
         }
+    }
 
-        // if segments have been removed (because they where ACKed) signal waiting threads
-        if(numRemoves > 0){
-            retransmissionLock.lock();
-            try {
-                retransmissionQueueChanged.signalAll();
-            } finally {
-                retransmissionLock.unlock();
+    /**
+     * Get the number of bytes that can still be added to the processing queue.
+     * @return
+     */
+    public int getProcessingQueueSpace(){
+        processingQueueLock.lock();
+        try {
+            return processingQueue.free();
+        } finally {
+            processingQueueLock.unlock();
+        }
+    }
+
+    /**
+     * Check whether or not there is data to process.
+     * @return true if and only if there is data queued to transmit. False otherwise
+     */
+    public boolean hasDataToProcess(){
+        processingQueueLock.lock();
+        try {
+            return !processingQueue.isEmpty();
+        } finally {
+            processingQueueLock.unlock();
+        }
+    }
+
+    /**
+     * Block until the data to process reaches the receive low-water mark, no more data
+     * will arrive, or the timeout expires. Stops waiting when the thread is interrupted,
+     * leaving it interrupted.
+     * @param timeout the maximum time to wait in ms, or 0 to wait without a timeout
+     * @return the number of bytes to process, which is less than the low-water mark if no
+     *         more data will arrive or the wait stopped early. 0 if there is no data and no
+     *         more data will arrive, or -1 if the wait stopped before any data arrived.
+     */
+    public int waitForDataToProcess(int timeout){
+        long deadline = getDeadline(timeout);
+        processingQueueLock.lock();
+
+        try {
+            if(!isReadable() && canReceive()){
+                Log.v(TAG, "Waiting until " + getReadableLength() + " bytes can be processed");
             }
 
-            allAckedLock.lock();
-            try {
-                allSegmentsAcked.signalAll();
-            } finally {
-                allAckedLock.unlock();
+            while(!isReadable() && canReceive()){
+                if(!await(hasDataForProcessing, deadline)){
+                    Log.v(TAG, "Stopped waiting for data to process, " + processingQueue.size() + " bytes queued");
+                    break;
+                }
+            }
+
+            if(processingQueue.isEmpty()){
+                return canReceive() ? -1 : 0;
+            }
+            return processingQueue.size();
+        } finally {
+            processingQueueLock.unlock();
+        }
+    }
+
+    /**
+     * Set the receive low-water mark (SO_RCVLOWAT): the number of bytes that should be
+     * queued before a blocked reader is woken up. Readers are also woken up once no more
+     * data will arrive.
+     * @param bytes the low-water mark, which is at least 1
+     */
+    public void setReceiveLowWatermark(int bytes){
+        processingQueueLock.lock();
+        try {
+            receiveLowWatermark = Math.max(1, bytes);
+            if(isReadable()){
+                hasDataForProcessing.signalAll();
             }
+        } finally {
+            processingQueueLock.unlock();
         }
+    }
 
+    public int getReceiveLowWatermark(){
+        processingQueueLock.lock();
+        try {
+            return receiveLowWatermark;
+        } finally {
+            processingQueueLock.unlock();
+        }
     }
 
     /**
-     * Remove a specific segment from the retransmission queue
-     * @param retransmissionSegment
-     * @return true if and only if the segment existed (and was removed)
+     * Check whether enough data is queued to wake up readers. Should be called while
+     * holding the processing queue lock.
+     * @return
+     */
+    private boolean isReadable(){
+        return processingQueue.size() >= getReadableLength();
+    }
+
+    /**
+     * Get the number of queued bytes needed to wake up readers. The low-water mark is
+     * limited to half the processing queue (like Linux does), so it can always be reached
+     * while the window is open. Should be called while holding the processing queue lock.
+     * @return
+     */
+    private int getReadableLength(){
+        return Math.max(1, Math.min(receiveLowWatermark, processingQueue.capacity() / 2));
+    }
+
+    /**
+     * Release all threads that are waiting for data to process
+     */
+    public void stopWaitingForDataToProcess(){
+        processingQueueLock.lock();
+        try {
+            hasDataForProcessing.signalAll();
+        } finally {
+            processingQueueLock.unlock();
+        }
+    }
+
+    /**
+     * Write maxlen bytes of data into buf.
+     * @param buf
+     * @param offset
+     * @param maxlen
+     * @return the number of bytes written to buf
+     */
+    public int getDataToProcess(byte[] buf, int offset, int maxlen){
+        return getDataToProcess(new ByteBuffer[]{ ByteBuffer.wrap(buf, offset, maxlen) });
+    }
+
+    /**
+     * Move data into the remaining space of the buffers, in order, while holding the lock
+     * only once. The position of each buffer is advanced by the number of bytes moved
+     * into it.
+     * @param dsts
+     * @return the number of bytes moved into the buffers
+     */
+    public int getDataToProcess(ByteBuffer[] dsts){
+        int len = 0;
+        boolean grown = false;
+
+        processingQueueLock.lock();
+        try {
+            // reading ends a loan, since the lent bytes may be read
+            lentLength = 0;
+
+            for(ByteBuffer dst : dsts){
+                len += processingQueue.get(dst);
+                if(dst.hasRemaining()){
+                    // the queue is empty
+                    break;
+                }
+            }
+            if(len > 0){
+                grown = tuneReceiveBuffer(len);
+            }
+        } finally {
+            processingQueueLock.unlock();
+        }
+
+        if(grown){
+            scheduleReceiveBufferShrink(ReceiveBufferTuner.IDLE_TIMEOUT_MS);
+        }
+        return len;
+    }
+
+    /**
+     * Lend at most maxlen bytes at the start of the processing queue to the user, without
+     * copying them. The bytes stay queued until they are released.
+     * @param maxlen
+     * @return a read-only view of the bytes. It holds fewer bytes than are queued if they
+     *         wrap around the end of the queue, and stays valid until the bytes are released.
      */
-    public boolean removeFromRetransmissionQueue(RetransmissionSegment retransmissionSegment) {
-        ScheduledFuture scheduledFuture = retransmissionMap.remove(retransmissionSegment);
+    public ByteBuffer lendDataToProcess(int maxlen){
+        processingQueueLock.lock();
+        try {
+            ByteBuffer data = processingQueue.view(maxlen);
+            lentLength = data.remaining();
+            return data;
+        } finally {
+            processingQueueLock.unlock();
+        }
+    }
 
-        if(scheduledFuture != null){
-            // Cancel scheduled task (the call to retransmit)
-            scheduledFuture.cancel(true);
+    /**
+     * Remove the first len bytes that were lent to the user from the processing queue,
+     * and end the loan. The other lent bytes stay queued.
+     * @param len
+     * @return the number of bytes removed, which is less than len if fewer bytes were lent
+     */
+    public int releaseDataToProcess(int len){
+        boolean grown = false;
 
-            // if segments have been removed (because they where ACKed) signal waiting threads
+        processingQueueLock.lock();
+        try {
+            len = processingQueue.skip(Math.max(0, Math.min(len, lentLength)));
+            lentLength = 0;
+            if(len > 0){
+                grown = tuneReceiveBuffer(len);
+            }
+        } finally {
+            processingQueueLock.unlock();
+        }
+
+        if(grown){
+            scheduleReceiveBufferShrink(ReceiveBufferTuner.IDLE_TIMEOUT_MS);
+        }
+        return len;
+    }
+
+    /**
+     * Get the current size of the processing queue, which grows with the rate at which
+     * the user reads data.
+     * @return
+     */
+    public int getReceiveBufferSize(){
+        processingQueueLock.lock();
+        try {
+            return processingQueue.capacity();
+        } finally {
+            processingQueueLock.unlock();
+        }
+    }
+
+    /**
+     * Grow the processing queue if the user read more data per round trip than before.
+     * There is no window scaling, so the queue never grows beyond the data it holds plus
+     * MAX_WINDOW: the other side could never fill the rest. Should be called while holding
+     * the processing queue lock.
+     * @param len the number of bytes the user read
+     * @return true if and only if the processing queue has grown
+     */
+    private boolean tuneReceiveBuffer(int len){
+        int capacity = processingQueue.capacity();
+        int size = receiveBufferTuner.onRead(len, System.currentTimeMillis(), getSmoothedRtt(), capacity);
+        size = Math.min(size, processingQueue.size() + MAX_WINDOW);
+        if(size <= capacity){
+            return false;
+        }
+
+        processingQueue.resize(size);
+        Log.v(TAG, "Receive buffer grown from " + capacity + " to " + size + " bytes");
+        return true;
+    }
+
+    /**
+     * Start a timer to shrink the processing queue once the connection is idle, unless
+     * it has been started already.
+     * @param delay in ms
+     */
+    private synchronized void scheduleReceiveBufferShrink(long delay){
+        if(receiveBufferTimeout != null){
+            return;
+        }
+
+        receiveBufferTimeout = timingWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (TransmissionControlBlock.this){
+                    receiveBufferTimeout = null;
+                    shrinkReceiveBuffer();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Shrink the processing queue back to its minimum size if the connection is idle,
+     * otherwise check again once it may be. The queue never shrinks below the data it
+     * holds plus the window that has been advertised, so data the other side may send
+     * always fits. Should be called while holding the tcb lock, so no window is
+     * advertised in the meantime.
+     */
+    private void shrinkReceiveBuffer(){
+        long delay;
+
+        processingQueueLock.lock();
+        try {
+            delay = receiveBufferTuner.getIdleDelay(System.currentTimeMillis());
+            if(delay == 0){
+                int capacity = processingQueue.capacity();
+                int size = Math.max(receiveBufferTuner.getMinSize(), processingQueue.size() + getAdvertisedReceiveWindow());
+                if(size < capacity){
+                    processingQueue.resize(size);
+                    receiveBufferTuner.onShrink();
+                    Log.v(TAG, "Connection is idle, receive buffer shrunk from " + capacity + " to " + size + " bytes");
+                }
+
+                if(size == receiveBufferTuner.getMinSize()){
+                    return;
+                }
+                delay = ReceiveBufferTuner.IDLE_TIMEOUT_MS;
+            }
+        } finally {
+            processingQueueLock.unlock();
+        }
+
+        if(state != State.CLOSED){
+            scheduleReceiveBufferShrink(delay);
+        }
+    }
+
+    
+    ////////////////////////
+    // 'Timeout' methods
+    ////////////////////////
+
+    /**
+     * Clear the retransmission queue so nothing is retransmitted anymore. Should only
+     * be called when entering the TIME_WAIT state, or when the connection is aborted.
+     */
+    public void clearRetransmissionQueue(){
+        retransmissionLock.lock();
+        try {
+            retransmissionQueue.clear();
+            stopRetransmissionTimer();
+            rtx_nxt = -1;
+        } finally {
+            retransmissionLock.unlock();
+        }
+
+        signalRetransmissionQueueChanged();
+    }
+
+    /**
+     * Double the retransmission timeout after a retransmission timed out
+     */
+    public void backoffRetransmissionTimeout(){
+        rttEstimator.backoff();
+        Log.v(TAG, "Retransmission timeout backed off to " + rttEstimator.getRetransmissionTimeout() + " ms");
+    }
+
+    /**
+     * Get the smoothed round-trip time in ms.
+     * @return the SRTT, or -1 if no round-trip time has been measured yet
+     */
+    public double getSmoothedRtt(){
+        return rttEstimator.getSmoothedRtt();
+    }
+
+    /**
+     * Get the current retransmission timeout in ms.
+     * @return
+     */
+    public int getRetransmissionTimeout(){
+        return rttEstimator.getRetransmissionTimeout();
+    }
+
+    /**
+     * Lower the upper bound of the retransmission timeout, so an unreachable peer is
+     * detected sooner. The default is RttEstimator.MAX_RTO_MS.
+     * @param ms
+     */
+    public void setMaxRetransmissionTimeout(int ms){
+        rttEstimator.setMaxRetransmissionTimeout(ms);
+    }
+
+    public int getMaxRetransmissionTimeout(){
+        return rttEstimator.getMaxRetransmissionTimeout();
+    }
+
+    /**
+     * Append a segment that has just been sent for the first time to the retransmission queue,
+     * and start the retransmission timer if it is not running yet (RFC 6298 section 5.1).
+     * Segments are sent in sequence number order, so the queue stays ordered by sequence
+     * number.
+     *
+     * @param retransmissionSegment
+     */
+    public void addToRetransmissionQueue(RetransmissionSegment retransmissionSegment){
+        // only segments with length > 0 (so either contains data, SYN of FIN) needs to be retransmitted
+        if(retransmissionSegment.getSegment().getLen() > 0){
             retransmissionLock.lock();
             try {
-                retransmissionQueueChanged.signalAll();
+                retransmissionQueue.add(retransmissionSegment);
+                if(retransmissionTimer == null){
+                    startRetransmissionTimer();
+                }
             } finally {
                 retransmissionLock.unlock();
             }
+        }
+    }
 
-            allAckedLock.lock();
-            try {
-                allSegmentsAcked.signalAll();
-            } finally {
-                allAckedLock.unlock();
+    /**
+     * Restart the retransmission timer with the current retransmission timeout, or stop it
+     * if all data has been acknowledged. There is a single timer per connection, which
+     * expires when the oldest unacknowledged segment was not acknowledged in time.
+     */
+    public void restartRetransmissionTimer(){
+        retransmissionLock.lock();
+        try {
+            stopRetransmissionTimer();
+            if(!retransmissionQueue.isEmpty()){
+                startRetransmissionTimer();
             }
+        } finally {
+            retransmissionLock.unlock();
+        }
+    }
 
-            return true;
+    /**
+     * @return true if and only if the retransmission timer is running
+     */
+    public boolean isRetransmissionTimerRunning(){
+        retransmissionLock.lock();
+        try {
+            return retransmissionTimer != null;
+        } finally {
+            retransmissionLock.unlock();
         }
+    }
 
-        return false;
+    /**
+     * @return the number of times the retransmission timer expired
+     */
+    public int getRetransmissionTimeouts(){
+        retransmissionLock.lock();
+        try {
+            return retransmissionTimeouts;
+        } finally {
+            retransmissionLock.unlock();
+        }
+    }
+
+    /**
+     * Should be called while holding the retransmission lock.
+     */
+    private void startRetransmissionTimer(){
+        RetransmissionTimer timer = new RetransmissionTimer();
+        timer.timeout = timingWheel.schedule(timer, rttEstimator.getRetransmissionTimeout(), TimeUnit.MILLISECONDS);
+        retransmissionTimer = timer;
+    }
+
+    /**
+     * Should be called while holding the retransmission lock.
+     */
+    private void stopRetransmissionTimer(){
+        if(retransmissionTimer != null){
+            retransmissionTimer.timeout.cancel();
+            retransmissionTimer = null;
+        }
+    }
+
+    /**
+     * Called when a retransmission timer expires. The tcb stays locked while the timeout is
+     * handled, so an ACK cannot restart the timer in the meantime.
+     * @param timer
+     */
+    private synchronized void onRetransmissionTimerExpired(RetransmissionTimer timer){
+        retransmissionLock.lock();
+        try {
+            if(retransmissionTimer != timer){
+                // the timer was restarted or stopped after it expired
+                return;
+            }
+            retransmissionTimer = null;
+            retransmissionTimeouts++;
+        } finally {
+            retransmissionLock.unlock();
+        }
+
+        timeoutHandler.onRetransmissionTimeout();
+    }
+
+    /**
+     * Remove all segments from the retransmission queue which have been ACKed by ack. Since
+     * the queue is ordered by sequence number, only the segments at the head are inspected.
+     * The retransmission timer is restarted if any segment was removed.
+     * Segments that were never retransmitted are used as round-trip time sample (Karn's rule).
+     * @param ack
+     */
+    public void removeFromRetransmissionQueue(long ack){
+        int numRemoves = 0;
+
+        retransmissionLock.lock();
+        try {
+            RetransmissionSegment segment;
+            while((segment = retransmissionQueue.peek()) != null && SegmentUtil.isAcked(segment.getSegment(), ack)){
+                retransmissionQueue.poll();
+                Log.v(TAG, "Removed segment " + segment.getSegment().getSeq() + " from retransmission queue");
+                numRemoves++;
+
+                if(segment.getRetry() == 0){
+                    rttEstimator.addSample(segment.getElapsedTime());
+                }
+            }
+
+            // new data was acknowledged, so restart the timer, or stop it if all data has
+            // been acknowledged (RFC 6298 sections 5.2 and 5.3)
+            if(numRemoves > 0){
+                restartRetransmissionTimer();
+            }
+        } finally {
+            retransmissionLock.unlock();
+        }
+
+        completeWrites(ack);
+
+        // if segments have been removed (because they where ACKed) signal waiting threads
+        if(numRemoves > 0){
+            Log.v(TAG, "Retransmission timeout is now " + rttEstimator.getRetransmissionTimeout() + " ms");
+
+            signalRetransmissionQueueChanged();
+        }
+    }
+
+    /**
+     * Wake up all threads waiting for segments to be acknowledged
+     */
+    private void signalRetransmissionQueueChanged(){
+        retransmissionLock.lock();
+        try {
+            retransmissionQueueChanged.signalAll();
+        } finally {
+            retransmissionLock.unlock();
+        }
+
+        allAckedLock.lock();
+        try {
+            allSegmentsAcked.signalAll();
+        } finally {
+            allAckedLock.unlock();
+        }
+    }
+
+    /**
+     * Check whether a segment is still waiting to be acknowledged
+     * @param retransmissionSegment
+     * @return true if and only if the segment is in the retransmission queue
+     */
+    public boolean isInRetransmissionQueue(RetransmissionSegment retransmissionSegment) {
+        retransmissionLock.lock();
+        try {
+            return retransmissionQueue.contains(retransmissionSegment);
+        } finally {
+            retransmissionLock.unlock();
+        }
     }
 
     public boolean hasDataToRetransmit(){
         retransmissionLock.lock();
         try {
-            return retransmissionMap.size() > 0;
+            return !retransmissionQueue.isEmpty();
+        } finally {
+            retransmissionLock.unlock();
+        }
+    }
+
+    /**
+     * Get the oldest segment that has not been acknowledged, i.e. the head of the
+     * retransmission queue.
+     * @return the segment, or null if the retransmission queue is empty
+     */
+    public RetransmissionSegment getOldestUnacknowledgedSegment(){
+        retransmissionLock.lock();
+        try {
+            return retransmissionQueue.peek();
         } finally {
             retransmissionLock.unlock();
         }
     }
 
     public ArrayList<Segment> getUnacknowledgedSegments(){
-        ArrayList<Segment> segments = new ArrayList<Segment>();
-        for(RetransmissionSegment segment : retransmissionMap.keySet()){
-            segments.add(segment.getSegment());
+        retransmissionLock.lock();
+        try {
+            ArrayList<Segment> segments = new ArrayList<Segment>();
+            for(RetransmissionSegment segment : retransmissionQueue){
+                segments.add(segment.getSegment());
+            }
+            return segments;
+        } finally {
+            retransmissionLock.unlock();
         }
-        return segments;
     }
 
     public void startTimeWaitTimer(){
-        if(timeWaitScheduledFuture != null){
+        if(timeWaitTimeout != null){
             Log.v(TAG, "Restarting TIME WAIT timer ("+ TIME_WAIT_TIMEOUT_SEC+" sec)");
-            timeWaitScheduledFuture.cancel(true);
+            timeWaitTimeout.cancel();
         } else {
             Log.v(TAG, "Starting TIME WAIT timer ("+ TIME_WAIT_TIMEOUT_SEC+" sec)");
         }
 
-        timeWaitScheduledFuture = executor.schedule(new Runnable() {
+        timeWaitTimeout = timingWheel.schedule(new Runnable() {
             @Override
             public void run() {
                 timeoutHandler.onTimeWaitTimeout();
             }
         }, TIME_WAIT_TIMEOUT_SEC, TimeUnit.SECONDS);
     }
+
+    /**
+     * Set the maximum time the ACK of a data segment is delayed.
+     * @param ms the delay in ms, which is clamped to [0, DELAYED_ACK_TIMEOUT]. With 0 every
+     *           data segment is ACKed right away. A delay of RttEstimator.MIN_RTO_MS or more
+     *           lets the other side retransmit a single segment before its ACK is sent.
+     */
+    public void setDelayedAckTimeout(int ms){
+        delayedAckTime = Math.max(0, Math.min(DELAYED_ACK_TIMEOUT, ms));
+    }
+
+    public int getDelayedAckTimeout(){
+        return delayedAckTime;
+    }
+
+    /**
+     * Delay the ACK of a segment that was received in order. The ACK is sent when a segment
+     * is sent anyway, e.g. with data, or when the delayed ACK timer expires. Every second
+     * segment is ACKed right away though, as are the segments following out of order data.
+     * @return true if the ACK should be sent right away, false if it is delayed
+     */
+    public synchronized boolean delayAck(){
+        if(quickAcks > 0){
+            quickAcks--;
+            return true;
+        }
+
+        if(delayedAckTime == 0 || ++delayedAckSegments >= DELAYED_ACK_SEGMENTS){
+            return true;
+        }
+
+        if(delayedAckTimeout == null){
+            delayedAckTimeout = timingWheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timeoutHandler.onDelayedAckTimeout();
+                }
+            }, delayedAckTime, TimeUnit.MILLISECONDS);
+        }
+
+        return false;
+    }
+
+    /**
+     * ACK the next QUICK_ACK_SEGMENTS segments right away. Called when data arrives out of
+     * order, so the sender gets the ACKs it needs to recover from the loss without delay.
+     */
+    public synchronized void enterQuickAckMode(){
+        quickAcks = QUICK_ACK_SEGMENTS;
+    }
+
+    /**
+     * @return true if and only if the ACK of a received segment is being delayed
+     */
+    public synchronized boolean hasDelayedAck(){
+        return delayedAckSegments > 0 && state != State.CLOSED;
+    }
+
+    /**
+     * Should be called whenever a segment that ACKs RCV.NXT has been sent, so no separate
+     * ACK has to be sent for the segments received so far.
+     */
+    public synchronized void onAckSent(){
+        delayedAckSegments = 0;
+        if(delayedAckTimeout != null){
+            delayedAckTimeout.cancel();
+            delayedAckTimeout = null;
+        }
+    }
+
+    /**
+     * The retransmission timer of the connection. A new one is scheduled every time the
+     * timer is (re)started, so an expired timer can tell whether it is still current.
+     */
+    private class RetransmissionTimer implements Runnable {
+
+        private TimingWheel.Timeout timeout;
+
+        public void run() {
+            onRetransmissionTimerExpired(this);
+        }
+    }
 }
@@ -0,0 +1,156 @@
+package nl.vu.cs.cn.tcp;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WriteFuture is the result of an asynchronous write. The data has been copied into the
+ * send buffer when the future is returned. The future completes when the receiver has
+ * acknowledged all of it, or fails when the connection is aborted first (e.g. because
+ * the retransmissions were exhausted). A write that copied no bytes, because the send
+ * buffer was full or len was 0, is done right away with the status EMPTY: there is
+ * nothing to acknowledge, so it neither succeeded nor failed.
+ */
+public class WriteFuture {
+
+    public enum Status {
+        PENDING,        // waiting for the receiver to acknowledge the data
+        ACKNOWLEDGED,   // all bytes have been acknowledged
+        EMPTY,          // no bytes were copied into the send buffer
+        FAILED          // the connection was not open, or was aborted
+    }
+
+    private final long seq;         // sequence number of the first byte
+    private final int length;       // number of bytes copied into the send buffer
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Status status = Status.PENDING;
+    private OnWriteCompleteListener listener;
+
+    WriteFuture(long seq, int length){
+        this.seq = seq;
+        this.length = length;
+    }
+
+    long getSeq(){
+        return seq;
+    }
+
+    /**
+     * @return the number of bytes that were copied into the send buffer. This is less than
+     *         the number of bytes passed to the write if the send buffer was (nearly) full.
+     */
+    public int getLength(){
+        return length;
+    }
+
+    /**
+     * @return true if and only if the write has either been acknowledged or failed
+     */
+    public boolean isDone(){
+        return done.getCount() == 0;
+    }
+
+    /**
+     * @return true if and only if all bytes of the write have been acknowledged. This is
+     *         false for a write with the status EMPTY.
+     */
+    public boolean isAcknowledged(){
+        return status == Status.ACKNOWLEDGED;
+    }
+
+    /**
+     * @return the status of the write, which is PENDING until the write is done
+     */
+    public Status getStatus(){
+        return status;
+    }
+
+    /**
+     * Block until the write is done, or the thread is interrupted. The thread stays
+     * interrupted in that case.
+     * @return true if and only if all bytes of the write have been acknowledged
+     */
+    public boolean await(){
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return isAcknowledged();
+    }
+
+    /**
+     * Block until the write is done, or the timeout expires.
+     * @param timeout
+     * @param unit
+     * @return true if and only if all bytes of the write have been acknowledged
+     * @throws InterruptedException
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        done.await(timeout, unit);
+        return isAcknowledged();
+    }
+
+    /**
+     * Set the listener that is called when the write is done. If the write is already
+     * done, the listener is called right away on the callback thread, never on the thread
+     * that sets it.
+     * @param listener
+     */
+    public void setOnWriteCompleteListener(OnWriteCompleteListener listener){
+        synchronized (this){
+            if(!isDone()){
+                this.listener = listener;
+                return;
+            }
+        }
+
+        callListener(listener);
+    }
+
+    void complete(){
+        finish(Status.ACKNOWLEDGED);
+    }
+
+    void completeEmpty(){
+        finish(Status.EMPTY);
+    }
+
+    void fail(){
+        finish(Status.FAILED);
+    }
+
+    /**
+     * Complete the write. This is called while the connection is locked, so the listener
+     * is called later, on the callback thread.
+     * @param status
+     */
+    private void finish(Status status){
+        OnWriteCompleteListener listener;
+        synchronized (this){
+            if(isDone()){
+                return;
+            }
+
+            this.status = status;
+            done.countDown();
+
+            listener = this.listener;
+        }
+
+        if(listener != null){
+            callListener(listener);
+        }
+    }
+
+    private void callListener(final OnWriteCompleteListener listener){
+        CallbackExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onWriteComplete(WriteFuture.this);
+            }
+        });
+    }
+}
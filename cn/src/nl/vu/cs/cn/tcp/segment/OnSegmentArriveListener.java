@@ -2,5 +2,10 @@ package nl.vu.cs.cn.tcp.segment;
 
 public interface OnSegmentArriveListener {
 
-    public void onSegmentArrive(Segment segment);
+    /**
+     * Called for every received segment. The segment may be a view on the received
+     * packet that is reused for the next packet, so it is only valid during this call.
+     * @param segment
+     */
+    public void onSegmentArrive(ReadableSegment segment);
 }
@@ -0,0 +1,54 @@
+package nl.vu.cs.cn.tcp.segment;
+
+import nl.vu.cs.cn.IP;
+
+/**
+ * The fields of a TCP segment that can be read. Received segments are handled through this
+ * interface, so they can be either a Segment or a SegmentView on the received packet.
+ */
+public interface ReadableSegment {
+
+    public IP.IpAddress getSourceAddr();
+    public short getSourcePort();
+    public IP.IpAddress getDestinationAddr();
+    public short getDestinationPort();
+
+    public long getSeq();
+
+    /**
+     * @return the sequence number of the last octet of the segment, or SEQ if its length is 0
+     */
+    public long getLastSeq();
+    public long getAck();
+
+    /**
+     * @return the window advertised by the sender of the segment in bytes
+     */
+    public int getWindow();
+
+    /**
+     * Get the length of the segment, which is the length of the data plus
+     * the length of control bits that take up space (SYN and FIN)
+     * @return
+     */
+    public int getLen();
+
+    /**
+     * Get the array that holds the data of this segment. The data starts at
+     * getDataOffset() and is getDataLength() bytes long.
+     * @return
+     */
+    public byte[] getData();
+    public int getDataOffset();
+    public int getDataLength();
+
+    public boolean isUrg();
+    public boolean isAck();
+    public boolean isPsh();
+    public boolean isRst();
+    public boolean isSyn();
+    public boolean isFin();
+
+    public short getChecksum();
+    public boolean hasValidChecksum();
+}
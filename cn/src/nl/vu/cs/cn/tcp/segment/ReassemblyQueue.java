@@ -0,0 +1,176 @@
+package nl.vu.cs.cn.tcp.segment;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * ReassemblyQueue holds segment text that arrived inside the receive window, but not
+ * (yet) in order. Data is stored as a list of non-overlapping chunks keyed by their
+ * position in the sequence space. Only the part of a segment that is not stored yet is
+ * copied, and chunks are never concatenated, so every byte is copied once no matter in
+ * which order the segments arrive. As soon as the gap at RCV.NXT is filled, the chunks
+ * can be polled in order.
+ *
+ * Sequence numbers wrap around, so internally chunks are keyed by a stream offset
+ * that only grows: the offset of RCV.NXT is advanced by the distance RCV.NXT moved
+ * between calls.
+ *
+ * Note: this class is not thread safe. Callers should guard it with their own lock.
+ */
+public class ReassemblyQueue {
+
+    private static final long SEQ_SPACE = Integer.MAX_VALUE;
+
+    private final TreeMap<Long, byte[]> chunks;
+
+    private long rcvNxt = -1;       // last known RCV.NXT
+    private long rcvNxtOffset;      // stream offset of RCV.NXT
+    private int size;               // number of bytes held in the queue
+
+    public ReassemblyQueue(){
+        chunks = new TreeMap<Long, byte[]>();
+    }
+
+    /**
+     * Add segment text to the queue. Only the part that falls inside the window
+     * [RCV.NXT, RCV.NXT + window) is stored, data that was already received or is already
+     * queued is discarded. The data is copied, so the buffer may be reused afterwards.
+     *
+     * @param rcvNxt the current RCV.NXT
+     * @param window the number of bytes after RCV.NXT that may be stored
+     * @param seq the sequence number of the first byte of data
+     * @param data
+     * @param offset
+     * @param len
+     * @return the number of bytes that were inside the window
+     */
+    public int add(long rcvNxt, int window, long seq, byte[] data, int offset, int len){
+        sync(rcvNxt);
+
+        long start = distance(rcvNxt, seq);
+        if(start >= SEQ_SPACE - len){
+            // segment starts before RCV.NXT, skip the part we already received
+            int skip = (int) (SEQ_SPACE - start);
+            offset += skip;
+            len -= skip;
+            start = 0;
+        }
+
+        len = (int) Math.min(len, window - start);
+        if(len <= 0){
+            return 0;
+        }
+
+        insert(rcvNxtOffset + start, data, offset, len);
+        return len;
+    }
+
+    /**
+     * Remove the chunk that starts exactly at RCV.NXT, if any. Call this until it returns
+     * null (advancing RCV.NXT in between) to get all data that is in order.
+     *
+     * @param rcvNxt the current RCV.NXT
+     * @return the in-order chunk, or null if there is still a gap at RCV.NXT
+     */
+    public byte[] poll(long rcvNxt){
+        sync(rcvNxt);
+
+        while(!chunks.isEmpty()){
+            long start = chunks.firstKey();
+            byte[] data = chunks.get(start);
+
+            if(start > rcvNxtOffset){
+                // there is still a gap
+                return null;
+            }
+
+            chunks.remove(start);
+            size -= data.length;
+
+            long end = start + data.length;
+            if(end <= rcvNxtOffset){
+                // already received in order in the meantime
+                continue;
+            }
+
+            if(start < rcvNxtOffset){
+                // partly received in the meantime, only return the new part
+                int skip = (int) (rcvNxtOffset - start);
+                byte[] tail = new byte[data.length - skip];
+                System.arraycopy(data, skip, tail, 0, tail.length);
+                return tail;
+            }
+
+            return data;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the number of bytes held in the queue
+     */
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return chunks.isEmpty();
+    }
+
+    public void clear(){
+        chunks.clear();
+        size = 0;
+    }
+
+    /**
+     * Store the parts of [start, start+len) that are not covered by a chunk yet.
+     */
+    private void insert(long start, byte[] data, int offset, int len){
+        long end = start + len;
+        long pos = start;
+
+        // skip the part that is covered by a preceding chunk (the NavigableMap methods are
+        // not available before API level 9, so the sorted views are used instead)
+        SortedMap<Long, byte[]> head = chunks.headMap(start + 1);
+        if(!head.isEmpty()){
+            long prev = head.lastKey();
+            pos = Math.max(pos, prev + chunks.get(prev).length);
+        }
+
+        // fill the gaps up to and between the following chunks
+        while(pos < end){
+            SortedMap<Long, byte[]> tail = chunks.tailMap(pos);
+            Long next = tail.isEmpty() ? null : tail.firstKey();
+            long gapEnd = next == null ? end : Math.min(end, next);
+            if(gapEnd > pos){
+                byte[] chunk = new byte[(int) (gapEnd - pos)];
+                System.arraycopy(data, offset + (int) (pos - start), chunk, 0, chunk.length);
+                chunks.put(pos, chunk);
+                size += chunk.length;
+            }
+
+            if(next == null){
+                break;
+            }
+            pos = next + chunks.get(next).length;
+        }
+    }
+
+    /**
+     * Advance the stream offset of RCV.NXT by the distance RCV.NXT moved since the last call.
+     */
+    private void sync(long rcvNxt){
+        if(this.rcvNxt != -1){
+            rcvNxtOffset += distance(this.rcvNxt, rcvNxt);
+        }
+        this.rcvNxt = rcvNxt;
+    }
+
+    /**
+     * Wraparound-safe distance from sequence number 'from' to sequence number 'to'.
+     */
+    private static long distance(long from, long to){
+        return ((to - from) % SEQ_SPACE + SEQ_SPACE) % SEQ_SPACE;
+    }
+}
@@ -1,15 +1,18 @@
 package nl.vu.cs.cn.tcp.segment;
 
 /**
- * RetransmissionSegment wraps a Segment and maintains the retry number.
+ * RetransmissionSegment wraps a Segment and maintains the retry number and the
+ * time the segment was first sent.
  */
 public class RetransmissionSegment {
 
     private final Segment segment;
+    private final long sendTime;    // time of the first transmission in ns
     private int retry;
 
     public RetransmissionSegment(Segment segment){
         this.segment = segment;
+        sendTime = System.nanoTime();
         retry = 0;
     }
 
@@ -25,6 +28,18 @@ public class RetransmissionSegment {
         retry++;
     }
 
+    /**
+     * Get the time that passed since the first transmission of this segment.
+     * @return the elapsed time in ms
+     */
+    public double getElapsedTime(){
+        return (System.nanoTime() - sendTime) / 1000000.0;
+    }
+
+    @Override
+    public int hashCode() {
+        return segment.hashCode();
+    }
 
     @Override
     public boolean equals(Object o) {
@@ -1,6 +1,5 @@
 package nl.vu.cs.cn.tcp.segment;
 
-import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
@@ -11,7 +10,7 @@ import nl.vu.cs.cn.tcp.TransmissionControlBlock;
 /**
  * A TCP segment which contains a header and a data part.
  */
-public class Segment {
+public class Segment implements ReadableSegment {
 
     /**
      * Masks for control bits.
@@ -53,8 +52,6 @@ public class Segment {
     private long ack;    // segment acknowledgement number
     private short wnd;  // segment window
 
-    private int len = -1;    // segment length data + syn + fin
-
     // Note: we omit variables urgent pointer and precendence value because
     // those are unsupported in this implementation.
 
@@ -126,7 +123,6 @@ public class Segment {
         setControlBits(bits);
 
         wnd = bb.getShort();
-        int checksumPosition = bb.position();
         checksum = bb.getShort();
 
         // ignore urgent pointer, never used in this implementation
@@ -138,11 +134,8 @@ public class Segment {
             bb.get(data);
         }
 
-        // check if checksum is correct
-        bb.putShort(checksumPosition, (short)0);
-
-        short expectedChecksum = ChecksumUtil.calculateChecksum(bb, this.sourceAddr, this.destinationAddr, bb.capacity());
-        validChecksum = (expectedChecksum == checksum);
+        // check if checksum is correct: the checksum over the packet including its checksum is 0
+        validChecksum = ChecksumUtil.calculateChecksum(this.sourceAddr, this.destinationAddr, packet, 0, packet.length) == 0;
     }
 
     /**
@@ -182,31 +175,45 @@ public class Segment {
     }
 
     public long getLastSeq() {
-        return (getLen() == 0) ? seq : ((seq + getLen() - 1) % Integer.MAX_VALUE);
+        return (getLen() == 0) ? getSeq() : ((getSeq() + getLen() - 1) % Integer.MAX_VALUE);
     }
 
     public long getAck() {
         return ack;
     }
 
+    /**
+     * @return the window advertised by the sender of the segment in bytes
+     */
+    public int getWindow() {
+        return wnd & 0xFFFF;
+    }
+
     /**
      * Get the length of the segment, which is the length of the data plus
      * the length of control bits that take up space (SYN and FIN)
      * @return
      */
     public int getLen() {
-        if(len == -1){
-            len = getDataLength();
-            if(isSyn) len += 1;
-            if(isFin) len += 1;
-        }
+        int len = getDataLength();
+        if(isSyn()) len += 1;
+        if(isFin()) len += 1;
         return len;
     }
 
+    /**
+     * Get the array that holds the data of this segment. The data starts at
+     * getDataOffset() and is getDataLength() bytes long.
+     * @return
+     */
     public byte[] getData(){
         return data;
     }
 
+    public int getDataOffset(){
+        return 0;
+    }
+
     /**
      * Copy bytes from data (starting at offset, maximum of either len or max data size)
      * into the data field.
@@ -351,7 +358,7 @@ public class Segment {
             bb.put(data);
         }
 
-        checksum = ChecksumUtil.calculateChecksum(bb, sourceAddr, destinationAddr, bb.capacity());
+        checksum = ChecksumUtil.calculateChecksum(sourceAddr, destinationAddr, bb.array(), 0, bb.capacity());
         bb.putShort(checksumPosition, checksum);
 
         return bb.array();
@@ -375,26 +382,17 @@ public class Segment {
     }
 
     @Override
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[src: ").append(IP.IpAddress.htoa(sourceAddr.getAddress())).append(":").append(sourcePort).append("] ");
-        sb.append("[dst: ").append(IP.IpAddress.htoa(destinationAddr.getAddress())).append(":").append(destinationPort).append("] ");
-        sb.append(" | SEQ: ").append(seq);
-        if(isAck) sb.append(" | ACK: ").append(ack);
-        sb.append(" | ");
-        sb.append("checksum: ").append(Integer.toHexString(checksum)).append(" | ");
-        if(isUrg) sb.append("URG, ");
-        if(isAck) sb.append("ACK, ");
-        if(isPsh) sb.append("PSH, ");
-        if(isRst) sb.append("RST, ");
-        if(isSyn) sb.append("SYN, ");
-        if(isFin) sb.append("FIN ");
-        if(getDataLength() > 0) try {
-            sb.append(" | [").append(new String(data, "UTF-8")).append("]");
-        } catch (UnsupportedEncodingException e) {
-            sb.append(" | [").append(new String(data)).append("]");
-        }
+    public int hashCode() {
+        int result = (int) seq;
+        result = 31 * result + (int) ack;
+        result = 31 * result + sourcePort;
+        result = 31 * result + destinationPort;
+        result = 31 * result + Arrays.hashCode(data);
+        return result;
+    }
 
-        return sb.toString();
+    @Override
+    public String toString() {
+        return SegmentUtil.toString(this);
     }
 }
@@ -0,0 +1,129 @@
+package nl.vu.cs.cn.tcp.segment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import nl.vu.cs.cn.IP;
+import nl.vu.cs.cn.IPUtil;
+import nl.vu.cs.cn.Log;
+
+/**
+ * SegmentEncoder encodes the segments of a window (header, data and checksum) in parallel,
+ * ahead of the thread that sends them.
+ *
+ * The segments are encoded on a pool that is shared by all connections and has a thread
+ * for every other processor. The sender encodes a segment itself if the pool has not
+ * started on it by the time it is to be sent, so the pool never delays a segment. On a
+ * single processor all segments are encoded by the sender.
+ */
+public class SegmentEncoder {
+
+    private static final String TAG = "SegmentEncoder";
+
+    private static SegmentEncoder instance;
+
+    private final ExecutorService executor;     // null if segments are only encoded inline
+
+    /**
+     * Get the encoder that is shared by all connections. The threads of the pool are
+     * created on the first call.
+     * @return
+     */
+    public static synchronized SegmentEncoder getInstance(){
+        if(instance == null){
+            instance = new SegmentEncoder(Runtime.getRuntime().availableProcessors() - 1);
+        }
+        return instance;
+    }
+
+    private SegmentEncoder(int threads){
+        if(threads < 1){
+            executor = null;
+            return;
+        }
+
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start encoding the segments into IP packets. The segments should not be changed
+     * until their packets have been taken with getPacket().
+     * @param segments
+     * @return the packets of the segments, in the same order
+     */
+    public List<Future<IP.Packet>> encode(List<Segment> segments){
+        List<Future<IP.Packet>> packets = new ArrayList<Future<IP.Packet>>(segments.size());
+
+        for(Segment segment : segments){
+            FutureTask<IP.Packet> task = new FutureTask<IP.Packet>(new EncodeTask(segment));
+            packets.add(task);
+
+            if(executor != null){
+                executor.execute(task);
+            }
+        }
+
+        return packets;
+    }
+
+    /**
+     * Get the packet of a segment. If the pool has not started encoding it yet, it is
+     * encoded on the calling thread, otherwise this waits until the pool is done. If the
+     * pool failed to encode it, the segment is encoded on the calling thread.
+     * @param packet
+     * @param segment
+     * @return
+     */
+    public static IP.Packet getPacket(Future<IP.Packet> packet, Segment segment){
+        if(packet instanceof FutureTask){
+            // does nothing if the pool has started on it already
+            ((FutureTask<IP.Packet>) packet).run();
+        }
+
+        boolean interrupted = false;
+        try {
+            while(true){
+                try {
+                    return packet.get();
+                } catch (InterruptedException e) {
+                    // keep waiting, the encoding does not take long
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Error while encoding segment", e);
+                    return IPUtil.getPacket(segment);
+                }
+            }
+        } finally {
+            if(interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class EncodeTask implements Callable<IP.Packet> {
+
+        private final Segment segment;
+
+        EncodeTask(Segment segment){
+            this.segment = segment;
+        }
+
+        public IP.Packet call() throws Exception {
+            return IPUtil.getPacket(segment);
+        }
+    }
+}
@@ -14,13 +14,27 @@ public class SegmentHandler implements OnSegmentArriveListener {
     private volatile TransmissionControlBlock tcb;
     private volatile IP ip;
 
+    // holds segment text that arrived out of order, until the gap at RCV.NXT is filled
+    private final ReassemblyQueue reassemblyQueue;
+
     public SegmentHandler(TransmissionControlBlock tcb, IP ip){
         this.tcb = tcb;
         this.ip = ip;
+        reassemblyQueue = new ReassemblyQueue();
         TAG += (tcb.isServer()) ? " [server]" : " [client]";
     }
 
-    public void onSegmentArrive(Segment segment){
+    public void onSegmentArrive(ReadableSegment segment){
+        handleSegment(segment);
+
+        // send the segments the ACK allowed, now that the tcb is not locked anymore
+        tcb.getSegmentSender().sendQueuedSegments();
+
+        // ACKs make room in the send buffer
+        tcb.notifyWritable();
+    }
+
+    private void handleSegment(ReadableSegment segment){
         Log.v(TAG, "Received: " + segment.toString());
 
         if(!segment.hasValidChecksum()){
@@ -85,18 +99,25 @@ public class SegmentHandler implements OnSegmentArriveListener {
 
                     // seventh, process the segment text
                     if(segment.getDataLength() > 0){
-                        handleSegmentText(segment);
+                        if(!handleSegmentText(segment)){
+                            return;
+                        }
                     }
 
                     // eigth, check the FIN bit
                     if(segment.isFin()){
+                        if((segment.getSeq() + segment.getDataLength()) % Integer.MAX_VALUE != tcb.getReceiveNext()){
+                            // there is still a gap before the FIN, the sender will retransmit it
+                            Log.v(TAG, "onSegmentArrive(): FIN arrived out of order. Ignoring FIN");
+                            return;
+                        }
                         handleSegmentFIN(segment);
                     }
             }
         }
     }
 
-    private void handleSegmentArriveInListenState(Segment segment){
+    private void handleSegmentArriveInListenState(ReadableSegment segment){
         if(segment.isRst()){
             // An incoming RST should be ignored.
             Log.v(TAG, "onSegmentArrive(RST): state is LISTEN, RST is ignored");
@@ -115,6 +136,7 @@ public class SegmentHandler implements OnSegmentArriveListener {
             // which should be one because it only has the SYN control bit
             tcb.setReceiveNext((segment.getSeq() + segment.getLen()) % Integer.MAX_VALUE);
             tcb.setInitialReceiveSequenceNumber(segment.getSeq());
+            tcb.setSendWindow(segment.getWindow(), segment.getSeq(), tcb.getInitialSendSequenceNumber());
 
             // TODO: queue any other control or text for processing later (actually, can SYN contain data?).
 
@@ -144,7 +166,7 @@ public class SegmentHandler implements OnSegmentArriveListener {
         }
     }
 
-    private void handleSegmentArriveInSynSentState(Segment segment){
+    private void handleSegmentArriveInSynSentState(ReadableSegment segment){
         // first, check if this is an ACK packet
         if(segment.isAck()){
 
@@ -178,8 +200,9 @@ public class SegmentHandler implements OnSegmentArriveListener {
             tcb.setReceiveNext(segment.getSeq() + segment.getLen());
             tcb.setInitialReceiveSequenceNumber(segment.getSeq());
 
-            // first packet, so we need to set snd_una
+            // first packet, so we need to set snd_una and the send window
             tcb.setSendUnacknowledged(segment.getAck());
+            tcb.setSendWindow(segment.getWindow(), segment.getSeq(), segment.getAck());
             tcb.removeFromRetransmissionQueue(segment.getAck());
 
             if(SegmentUtil.isAcked(tcb.getInitialSendSequenceNumber(), segment.getAck(), 1)){
@@ -226,7 +249,7 @@ public class SegmentHandler implements OnSegmentArriveListener {
      * @param segment
      * @return true if and only if the processing of the segment should continue
      */
-    private boolean handleACKArriveInDefaultState(Segment segment){
+    private boolean handleACKArriveInDefaultState(ReadableSegment segment){
         switch (tcb.getState()) {
             case SYN_RECEIVED:
                 if(SegmentUtil.inWindow(tcb.getSendUnacknowledged(), segment.getAck(), tcb.getSendNext()+1)){
@@ -244,11 +267,21 @@ public class SegmentHandler implements OnSegmentArriveListener {
             case CLOSE_WAIT:
             case CLOSING:
                 Log.d(TAG, "Continuing processing!!!");
+
+                // update the send window if SND.UNA =< SEG.ACK =< SND.NXT (RFC 1122 section 4.2.2.20)
+                boolean windowChanged = SegmentUtil.inWindow(tcb.getSendUnacknowledged(), segment.getAck(), tcb.getSendNext()+1)
+                        && tcb.updateSendWindow(segment);
+
                 if(SegmentUtil.inWindow(tcb.getSendUnacknowledged()+1, segment.getAck(), tcb.getSendNext()+1)){
+                    int ackedBytes = (int) ((segment.getAck() - tcb.getSendUnacknowledged() + Integer.MAX_VALUE) % Integer.MAX_VALUE);
                     tcb.setSendUnacknowledged(segment.getAck());
                     tcb.removeFromRetransmissionQueue(segment.getAck());
-
-                    // normally window size would be updated here. However, that is not supported in this implementation
+                    handleNewAck(segment, ackedBytes);
+                } else if(!windowChanged && isDuplicateAck(segment)){
+                    handleDuplicateAck();
+                } else if(windowChanged){
+                    Log.v(TAG, "onSegmentArrive(): window update received");
+                    tcb.signalSendWindowChanged();
                 } else if(SegmentUtil.inWindow(tcb.getSendUnacknowledged()-tcb.getSendWindow(), segment.getAck(), tcb.getSendUnacknowledged())){
                     Log.v(TAG, "onSegmentArrive(): duplicate ACK received. Ignoring");
                 } else if(SegmentUtil.inWindow(tcb.getSendNext()+1, segment.getAck(), tcb.getSendNext()+tcb.getSendWindow())){
@@ -269,7 +302,7 @@ public class SegmentHandler implements OnSegmentArriveListener {
 
                 if (tcb.getState() == TransmissionControlBlock.State.FIN_WAIT_1) {
                     // Check if our FIN has been ACKed
-                    if(tcb.getUnacknowledgedFin() != null && SegmentUtil.isAcked(tcb.getUnacknowledgedFin(), segment.getAck())){
+                    if(isFinAcked(segment)){
                         tcb.enterState(TransmissionControlBlock.State.FIN_WAIT_2);
                     }
                 } else if (tcb.getState() == TransmissionControlBlock.State.FIN_WAIT_2) {
@@ -279,7 +312,7 @@ public class SegmentHandler implements OnSegmentArriveListener {
 
                     // return OK to users close call
                 } else if (tcb.getState() == TransmissionControlBlock.State.CLOSING) {
-                    if(SegmentUtil.isAcked(tcb.getUnacknowledgedFin(), segment.getAck())){
+                    if(isFinAcked(segment)){
                         // This ACK ACKs our FIN, so move to TIME_WAIT and start timer
                         tcb.enterState(TransmissionControlBlock.State.TIME_WAIT);
                         tcb.startTimeWaitTimer();
@@ -308,42 +341,195 @@ public class SegmentHandler implements OnSegmentArriveListener {
         return true;
     }
 
-    private void handleSegmentText(Segment segment){
-        if(segment.getDataLength() == 0){
+    /**
+     * Check if the segment is a duplicate ACK as defined in RFC 5681: it carries no data,
+     * SYN or FIN, it ACKs SND.UNA, and there is data in flight. The window should not have
+     * changed either, which is checked by the caller.
+     * @param segment
+     * @return
+     */
+    private boolean isDuplicateAck(ReadableSegment segment){
+        return segment.getAck() == tcb.getSendUnacknowledged()
+                && segment.getLen() == 0
+                && tcb.getBytesInFlight() > 0;
+    }
+
+    /**
+     * Count a duplicate ACK. The third one in a row means that the segment at SND.UNA
+     * was most likely lost, so retransmit it right away instead of waiting for the
+     * retransmission timer (fast retransmit), and enter fast recovery. After a timeout the
+     * segments are resent already, so no fast retransmit is done then. Every duplicate
+     * ACK may open up the usable window, so waiting senders are woken up.
+     */
+    private void handleDuplicateAck(){
+        int dupAcks = tcb.increaseDuplicateAcks();
+        Log.v(TAG, "onSegmentArrive(): duplicate ACK #" + dupAcks + " received for " + tcb.getSendUnacknowledged());
+
+        if(dupAcks == TransmissionControlBlock.DUPLICATE_ACK_THRESHOLD && !tcb.isInFastRecovery() && !tcb.isInLossRecovery()){
+            Log.v(TAG, "onSegmentArrive(): fast retransmit of segment " + tcb.getSendUnacknowledged());
+            tcb.getCongestionControl().onLoss(tcb.getBytesInFlight());
+            tcb.enterFastRecovery();
+            retransmitOldestSegment();
+        } else if(tcb.isInFastRecovery()){
+            tcb.getCongestionControl().onDuplicateAck();
+        }
+
+        tcb.signalSendWindowChanged();
+    }
+
+    /**
+     * Handle an ACK that acknowledges new data. During fast recovery, an ACK that does not
+     * cover everything that was in flight when recovery started (a partial ACK) means the
+     * next segment was lost as well, so it is retransmitted right away (NewReno, RFC 6582).
+     * Congestion control is notified of the ACK in all cases.
+     * @param segment
+     * @param ackedBytes the number of bytes SND.UNA advanced
+     */
+    private void handleNewAck(ReadableSegment segment, int ackedBytes){
+        if(!tcb.isInFastRecovery()){
+            tcb.resetDuplicateAcks();
+            tcb.getCongestionControl().onAck(ackedBytes);
+        } else if(SegmentUtil.inWindow(tcb.getRecoveryPoint(), segment.getAck(), tcb.getSendNext()+1)){
+            Log.v(TAG, "onSegmentArrive(): full ACK received, leaving fast recovery");
+            tcb.exitFastRecovery();
+            tcb.getCongestionControl().onRecovery();
+        } else {
+            Log.v(TAG, "onSegmentArrive(): partial ACK received, retransmitting segment " + tcb.getSendUnacknowledged());
+            tcb.getCongestionControl().onPartialAck(ackedBytes);
+            retransmitOldestSegment();
+        }
+
+        tcb.signalSendWindowChanged();
+    }
+
+    /**
+     * Retransmit the oldest unacknowledged segment. The retransmission timer keeps running,
+     * it is only restarted when new data is acknowledged.
+     */
+    private void retransmitOldestSegment(){
+        RetransmissionSegment retransmissionSegment = tcb.getOldestUnacknowledgedSegment();
+        if(retransmissionSegment == null){
             return;
         }
 
+        // count the retransmission, so the segment is not used as round-trip time sample
+        retransmissionSegment.increaseRetry();
+
+        IP.Packet packet = IPUtil.getPacket(retransmissionSegment.getSegment());
+        try {
+            Log.v(TAG, "Resending: " + retransmissionSegment.getSegment().toString());
+            ip.ip_send(packet);
+        } catch (IOException e) {
+            Log.e(TAG, "Error while resending segment. Will be retransmitted...", e);
+        }
+    }
+
+    /**
+     * Process the text of a segment. If the segment is in order and there is no gap to
+     * fill, the in-window part of the text is copied straight to the processing queue.
+     * Otherwise it is added to the reassembly queue, after which all data that is in order
+     * is moved to the processing queue.
+     *
+     * The ACK of a segment that arrives in order is delayed (RFC 1122 section 4.2.3.2), so it
+     * can be combined with the ACK of the next segment or with outgoing data. A segment that
+     * arrives out of order, or fills a gap, is ACKed right away (RFC 5681 section 4.2), which
+     * is a duplicate ACK in the first case. So are the segments that follow it, until the
+     * sender has recovered.
+     *
+     * @param segment
+     * @return true if and only if all text of the segment has been delivered in order, and
+     *         processing of the segment should continue
+     */
+    private boolean handleSegmentText(ReadableSegment segment){
+        if(segment.getDataLength() == 0){
+            return true;
+        }
+
         switch(tcb.getState()){
             case ESTABLISHED:
             case FIN_WAIT_1:
             case FIN_WAIT_2:
-                Log.v(TAG, "onSegmentArrive(): adding data to processing queue");
-                tcb.queueDataForProcessing(segment.getData(), 0, segment.getDataLength());
+                boolean hadGap = !reassemblyQueue.isEmpty();
+
+                // only accept data that will fit in the processing queue once it is in order
+                int window = Math.min(tcb.getReceiveWindow(), tcb.getProcessingQueueSpace());
+                if(!hadGap && segment.getSeq() == tcb.getReceiveNext()){
+                    // fast path: the segment is in order, copy its text straight to the processing queue
+                    int len = Math.min(window, segment.getDataLength());
+                    int queued = tcb.queueDataForProcessing(segment.getData(), segment.getDataOffset(), len);
+                    if(queued < segment.getDataLength()){
+                        Log.v(TAG, "onSegmentArrive(): " + (segment.getDataLength() - queued) + " bytes of segment " + segment.getSeq() + " are outside the window");
+                    }
 
-                // update receive next sequence number to RCV.NXT + segment.getLen()
-                tcb.advanceReceiveNext(segment.getLen());
+                    // update receive next sequence number to RCV.NXT + queued
+                    tcb.advanceReceiveNext(queued);
+                } else {
+                    int stored = reassemblyQueue.add(tcb.getReceiveNext(), window,
+                            segment.getSeq(), segment.getData(), segment.getDataOffset(), segment.getDataLength());
+                    if(stored < segment.getDataLength()){
+                        Log.v(TAG, "onSegmentArrive(): " + (segment.getDataLength() - stored) + " bytes of segment " + segment.getSeq() + " are outside the window");
+                    }
 
-                // send ACK <SEQ=SND.NXT><ACK=RCV.NXT><CTL=ACK>
-                Segment outSegment = SegmentUtil.getPacket(tcb, tcb.getSendNext(), tcb.getReceiveNext());
-                IP.Packet packet = IPUtil.getPacket(outSegment);
-                try {
-                    Log.v(TAG, "Sending: " + outSegment.toString());
-                    ip.ip_send(packet);
-                } catch (IOException e) {
-                    Log.e(TAG, "Error while sending ACK", e);
+                    // move all data that is in order to the processing queue
+                    byte[] data;
+                    while((data = reassemblyQueue.poll(tcb.getReceiveNext())) != null){
+                        Log.v(TAG, "onSegmentArrive(): adding data to processing queue");
+                        int queued = tcb.queueDataForProcessing(data, 0, data.length);
+
+                        // update receive next sequence number to RCV.NXT + queued
+                        tcb.advanceReceiveNext(queued);
+                        if(queued < data.length){
+                            // the rest is dropped and will be retransmitted
+                            Log.w(TAG, "onSegmentArrive(): processing queue full, dropped " + (data.length - queued) + " bytes");
+                            break;
+                        }
+                    }
                 }
 
-                return;
+                if(!reassemblyQueue.isEmpty()){
+                    Log.v(TAG, "onSegmentArrive(): " + reassemblyQueue.size() + " bytes waiting for reassembly. RCV.NXT: " + tcb.getReceiveNext());
+                }
+
+                boolean inOrder = (segment.getSeq() + segment.getDataLength()) % Integer.MAX_VALUE == tcb.getReceiveNext();
+                if(!inOrder || hadGap){
+                    tcb.enterQuickAckMode();
+
+                    // send ACK <SEQ=SND.NXT><ACK=RCV.NXT><CTL=ACK>
+                    sendAck();
+                } else if(!segment.isFin() && tcb.delayAck()){
+                    // (a FIN is ACKed when it is processed)
+                    sendAck();
+                }
+
+                return inOrder;
             case CLOSE_WAIT:
             case CLOSING:
             case LAST_ACK:
             case TIME_WAIT:
                 Log.w(TAG, "onSegmentArrive(): unexpected data segment after receiving FIN. Ignoring");
-                return;
+                return true;
         }
+
+        return true;
+    }
+
+    /**
+     * Send ACK <SEQ=SND.NXT><ACK=RCV.NXT><CTL=ACK>
+     */
+    private void sendAck(){
+        Segment outSegment = SegmentUtil.getPacket(tcb, tcb.getSendNext(), tcb.getReceiveNext());
+        IP.Packet packet = IPUtil.getPacket(outSegment);
+        try {
+            Log.v(TAG, "Sending: " + outSegment.toString());
+            ip.ip_send(packet);
+        } catch (IOException e) {
+            Log.e(TAG, "Error while sending ACK", e);
+        }
+
+        tcb.onAckSent();
     }
 
-    private void handleSegmentFIN(Segment segment){
+    private void handleSegmentFIN(ReadableSegment segment){
         if(!segment.isFin()){
             return;
         }
@@ -361,12 +547,11 @@ public class SegmentHandler implements OnSegmentArriveListener {
         // TODO: signal user "connection closing"
         // TODO: return all pending receives with "connection closing"
 
-        // advance receive next sequence number by the length of this segment
-        tcb.advanceReceiveNext(segment.getLen());
+        // advance receive next sequence number by one, the sequence number occupied by the FIN
+        // (the segment text has already been processed)
+        tcb.advanceReceiveNext(1);
 
-        // TODO: if segment contains both FIN and text, two ACKs are sent
-
-        // send ack for FIN
+        // send ack for FIN, which also ACKs the text of the segment
         Segment outSegment = SegmentUtil.getPacket(tcb, tcb.getSendNext(), tcb.getReceiveNext());
         IP.Packet packet = IPUtil.getPacket(outSegment);
         try {
@@ -376,6 +561,8 @@ public class SegmentHandler implements OnSegmentArriveListener {
             Log.e(TAG, "Error while sending ACK for FIN", e);
         }
 
+        tcb.onAckSent();
+
         tcb.advanceSendNext(outSegment.getLen());
 
         switch(tcb.getState()){
@@ -385,7 +572,7 @@ public class SegmentHandler implements OnSegmentArriveListener {
                 return;
             case FIN_WAIT_1:
                 // Check if our FIN has been ACKed
-                if(SegmentUtil.isAcked(tcb.getUnacknowledgedFin(), segment.getAck())){
+                if(isFinAcked(segment)){
                     tcb.enterState(TransmissionControlBlock.State.TIME_WAIT);
 
                     // start time-wait timer, turn of other timers
@@ -413,23 +600,39 @@ public class SegmentHandler implements OnSegmentArriveListener {
         }
     }
 
+    /**
+     * Check whether the segment ACKs our FIN. A close() only sends the FIN once all written
+     * data has been acknowledged, so in FIN_WAIT_1 and CLOSING the FIN may not be sent yet.
+     * @param segment
+     * @return true if and only if our FIN has been sent and is acknowledged by the segment
+     */
+    private boolean isFinAcked(ReadableSegment segment){
+        return tcb.getUnacknowledgedFin() != null && SegmentUtil.isAcked(tcb.getUnacknowledgedFin(), segment.getAck());
+    }
+
     /**
      * Check whether a segment is acceptable, based on its length, sequence number, and
      * the current window size. A sequence number is valid if it falls inside the limits of
      * RCV.NXT and RCV.NXT + RCV.WND.
      *
+     * If RCV.WND is zero, a segment is acceptable if it starts at RCV.NXT, so that the ACK
+     * and window it carries are processed (RFC 793, page 69). Its text does not fit in the
+     * window and is dropped by handleSegmentText(), which ACKs it. This matters for the
+     * zero window probes of the other side, which may be the only segments that carry its
+     * ACKs.
+     *
      * @param segment
      * @return true if and only if the segment is acceptable
      */
-    private boolean acceptableSegment(Segment segment){
+    private boolean acceptableSegment(ReadableSegment segment){
         if(tcb.getReceiveWindow() == 0){
-            // If the RCV.WND is zero, no segments will be acceptable, except valid ACKs, URGs and RSTs.
-            return segment.getLen() == 0 && segment.getSeq() == tcb.getReceiveNext();
+            // If the RCV.WND is zero, no text will be acceptable, but valid ACKs, URGs and RSTs are.
+            return segment.getSeq() == tcb.getReceiveNext();
         } else if (segment.getLen() == 0) {
             return SegmentUtil.inWindow(tcb.getReceiveNext(), segment.getSeq(), tcb.getReceiveNext() + tcb.getReceiveWindow());
         } else {
             return SegmentUtil.inWindow(tcb.getReceiveNext(), segment.getSeq(), tcb.getReceiveNext() + tcb.getReceiveWindow())
-                    || SegmentUtil.inWindow(tcb.getReceiveNext(), segment.getSeq() + segment.getLen()-1, tcb.getReceiveNext());
+                    || SegmentUtil.inWindow(tcb.getReceiveNext(), segment.getSeq() + segment.getLen()-1, tcb.getReceiveNext() + tcb.getReceiveWindow());
         }
     }
 
@@ -29,11 +29,13 @@ public class SegmentReceiver {
         private final IP ip;
         private final OnSegmentArriveListener listener;
         private final IP.Packet packet;
+        private final SegmentView segment;      // reused for every received packet
 
         private ReceiverRunnable(OnSegmentArriveListener listener, IP ip) {
             this.ip = ip;
             this.listener = listener;
             packet = new IP.Packet();
+            segment = new SegmentView();
         }
 
         @Override
@@ -47,7 +49,11 @@ public class SegmentReceiver {
                     try {
                         ip.ip_receive_timeout(packet, RECEIVE_TIMEOUT);
                         if(packet.data != null){
-                            Segment segment = new Segment(packet.data, packet.source, packet.destination);
+                            if(!segment.wrap(packet)){
+                                Log.w("SegmentRecvr", "[Thread " + Thread.currentThread().getId() + "] Received truncated segment. Dropping segment");
+                                continue;
+                            }
+
                             Log.d("SegmentRecvr", "[Thread " + Thread.currentThread().getId() + "] Received segment!");
                             if(!shouldStop) {
                                 listener.onSegmentArrive(segment);
@@ -0,0 +1,391 @@
+package nl.vu.cs.cn.tcp.segment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import nl.vu.cs.cn.IP;
+import nl.vu.cs.cn.IPUtil;
+import nl.vu.cs.cn.Log;
+import nl.vu.cs.cn.tcp.CongestionControl;
+import nl.vu.cs.cn.tcp.Pacer;
+import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+import nl.vu.cs.cn.tcp.timeout.TimingWheel;
+
+/**
+ * SegmentSender sends the data that has been written to the transmission queue. It is
+ * called after a write, and whenever the usable window may have grown (e.g. after an ACK),
+ * and sends as much data as the usable window allows.
+ *
+ * Unless TCP_NODELAY is set, Nagle's algorithm (RFC 896, RFC 1122 section 4.2.3.4) is
+ * used: while data is in flight only full segments are sent, so small writes are
+ * collected into a single segment that is sent once the outstanding data is ACKed.
+ *
+ * While the connection is corked (TCP_CORK) only full segments are sent at all, until the
+ * queued data is pushed by uncorking or flushing the socket.
+ *
+ * After a retransmission timeout, the segments that were in flight behind the one the timer
+ * resent are resent first, under the same window and pacing checks as new data.
+ *
+ * Segments are paced by the Pacer of the connection. When it has no tokens for the next
+ * segment, a timer on the timing wheel calls transmit() again once it has.
+ *
+ * Sending is a pipeline of two stages. While holding the tcb lock, the segments that fit
+ * in the usable window are built, moved to the retransmission queue and handed to the
+ * SegmentEncoder, which encodes them (header, data and checksum) in parallel. The tcb lock
+ * is then released, and the encoded packets are sent in order. So while one window is
+ * being sent, an ACK can already open and build the next window, and no more than the
+ * usable window is ever waiting to be sent.
+ *
+ * When the receiver closes its window while there is data to send, the persist timer
+ * probes the window (RFC 1122 section 4.2.2.17), so a lost window update cannot stall
+ * the connection. The probes back off up to the maximum retransmission timeout.
+ */
+public class SegmentSender {
+
+    private String TAG = "SegmentSender";
+
+    private final TransmissionControlBlock tcb;
+    private final IP ip;
+    private final TimingWheel timingWheel;
+    private final SegmentEncoder encoder;
+
+    // segments that have been built but not sent yet, in order, guarded by itself
+    private final LinkedList<Outgoing> outgoing = new LinkedList<Outgoing>();
+    private boolean sending;                    // true while a thread sends the outgoing segments, guarded by outgoing
+
+    private TimingWheel.Timeout pacingTimer;    // set while waiting for the pacer, guarded by tcb
+    private TimingWheel.Timeout persistTimer;   // set while the send window is closed, guarded by tcb
+    private int probes;                         // number of window probes sent since the window closed
+
+    // holds the data of the segment that is being built, it is copied into the segment
+    private final byte[] buffer = new byte[TransmissionControlBlock.MAX_SEGMENT_SIZE - Segment.HEADER_SIZE];
+
+    public SegmentSender(IP ip, TransmissionControlBlock tcb){
+        this.ip = ip;
+        this.tcb = tcb;
+        timingWheel = TimingWheel.getInstance();
+        encoder = SegmentEncoder.getInstance();
+        TAG += (tcb.isServer()) ? " [server]" : " [client]";
+    }
+
+    /**
+     * Send data from the transmission queue as long as the usable window allows. Each segment
+     * is added to the retransmission queue before its data is removed from the transmission
+     * queue, so the data can always be found in one of them.
+     */
+    public void transmit(){
+        synchronized (tcb){
+            retransmitLostSegments();
+
+            while(tcb.canTransmit() && !tcb.isInLossRecovery()){
+                List<Segment> segments = buildSegments();
+                if(segments.isEmpty()){
+                    break;
+                }
+
+                queueSegments(segments);
+            }
+
+            startPersistTimer();
+        }
+
+        // a caller that holds the tcb lock (the SegmentHandler) sends them after releasing it
+        if(!Thread.holdsLock(tcb)){
+            sendQueuedSegments();
+        }
+    }
+
+    /**
+     * Send a window update to the other side if the user read enough data to reopen the
+     * receive window.
+     */
+    public void sendWindowUpdate(){
+        synchronized (tcb){
+            if(!tcb.shouldSendWindowUpdate()){
+                return;
+            }
+
+            // send ACK <SEQ=SND.NXT><ACK=RCV.NXT><CTL=ACK>
+            Segment segment = SegmentUtil.getPacket(tcb, tcb.getSendNext(), tcb.getReceiveNext());
+            sendControlSegment(segment, "window update");
+            tcb.onAckSent();
+        }
+    }
+
+    /**
+     * Build the segments for the data in the transmission queue that fits in the usable
+     * window, without removing the data from the queue. Should be called while holding
+     * the tcb lock.
+     * @return the segments, in order of their sequence numbers
+     */
+    private List<Segment> buildSegments(){
+        List<Segment> segments = new ArrayList<Segment>();
+        int window = tcb.getUsableWindow();
+        int position = 0;   // number of queued bytes in the segments built so far
+
+        while(position < window){
+            int len = tcb.peekDataToTransmit(position, buffer, 0, Math.min(window - position, buffer.length));
+            if(len == 0){
+                break;
+            }
+
+            // a short segment is only sent right away if all of it has been pushed
+            int pushed = tcb.getPushLength() - position;
+            if(len < buffer.length && len > pushed){
+                String reason = null;
+                if(tcb.getCork()){
+                    reason = "the socket is uncorked";
+                } else if(tcb.getBytesInFlight() + position > 0 && !tcb.getNoDelay()){
+                    reason = "the data in flight is acknowledged (Nagle)";
+                }
+
+                if(reason != null){
+                    if(pushed <= 0){
+                        Log.v(TAG, "Holding " + len + " bytes until " + reason);
+                        break;
+                    }
+
+                    // send the pushed data, the data after it waits
+                    Log.v(TAG, "Holding " + (len - pushed) + " bytes until " + reason);
+                    len = pushed;
+                }
+            }
+
+            if(!pace(len)){
+                break;
+            }
+
+            if(position == 0){
+                // the window shrinks if the connection has been idle
+                tcb.onSendData();
+                window = tcb.getUsableWindow();
+                len = Math.min(len, window);
+                if(len == 0){
+                    break;
+                }
+            }
+
+            long seq = (tcb.getSendNext() + position) % Integer.MAX_VALUE;
+            Segment segment = SegmentUtil.getPacket(tcb, seq, tcb.getReceiveNext());
+            segment.setData(buffer, 0, len);
+            segments.add(segment);
+
+            position += len;
+        }
+
+        return segments;
+    }
+
+    /**
+     * In loss recovery after a retransmission timeout, resend the segments after the one
+     * the timer resent. They are sent under the same usable window and pacing checks as new
+     * data, so with the congestion window reset to one segment they are resent in slow start
+     * instead of all at once. Should be called while holding the tcb lock.
+     */
+    private void retransmitLostSegments(){
+        List<Segment> segments = new ArrayList<Segment>();
+        int window = tcb.getUsableWindow();
+
+        RetransmissionSegment retransmissionSegment;
+        while((retransmissionSegment = tcb.getSegmentToRetransmit()) != null){
+            Segment segment = retransmissionSegment.getSegment();
+            if(segment.getLen() > window || !pace(segment.getLen())){
+                break;
+            }
+
+            Log.v(TAG, "Resending lost segment " + segment.getSeq());
+
+            // count the retransmission, so the segment is not used as round-trip time sample
+            retransmissionSegment.increaseRetry();
+            tcb.onSegmentRetransmitted(segment);
+            segments.add(segment);
+
+            window -= segment.getLen();
+        }
+
+        if(!segments.isEmpty()){
+            queueForSending(segments);
+        }
+    }
+
+    /**
+     * Start encoding the segments and queue them to be sent. Should be called while holding
+     * the tcb lock, so the segments are queued in the order they were built.
+     * @param segments
+     */
+    private void queueForSending(List<Segment> segments){
+        List<Future<IP.Packet>> packets = encoder.encode(segments);
+
+        synchronized (outgoing){
+            for(int i=0; i<segments.size(); i++){
+                outgoing.add(new Outgoing(segments.get(i), packets.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Queue new segments to be sent, and account for them as if they have been sent already:
+     * SND.NXT is advanced, and their data is moved from the transmission queue to the
+     * retransmission queue. Should be called while holding the tcb lock.
+     * @param segments
+     */
+    private void queueSegments(List<Segment> segments){
+        queueForSending(segments);
+
+        for(Segment segment : segments){
+            tcb.addToRetransmissionQueue(new RetransmissionSegment(segment));
+
+            // the segment carries the ACK of the data received so far
+            tcb.onAckSent();
+
+            tcb.advanceSendNext(segment.getLen());
+            tcb.removeTransmittedData(segment.getDataLength());
+        }
+    }
+
+    /**
+     * Send the queued segments in order, waiting for each of them to be encoded. Should be
+     * called without holding the tcb lock. If another thread is sending already, it will
+     * also send the segments this thread queued, so this returns immediately.
+     */
+    public void sendQueuedSegments(){
+        synchronized (outgoing){
+            if(sending){
+                return;
+            }
+            sending = true;
+        }
+
+        while(true){
+            Outgoing next;
+            synchronized (outgoing){
+                next = outgoing.poll();
+                if(next == null){
+                    sending = false;
+                    return;
+                }
+            }
+
+            IP.Packet packet = SegmentEncoder.getPacket(next.packet, next.segment);
+            try {
+                Log.v(TAG, "Sending: " + next.segment.toString());
+                ip.ip_send(packet);
+            } catch (IOException e) {
+                // the retransmission timer will send it again
+                Log.e(TAG, "Error while sending data", e);
+            }
+        }
+    }
+
+    /**
+     * Start the persist timer if the send window is closed while there is data to send and
+     * nothing in flight, so no ACK will open the window. Should be called while holding the
+     * tcb lock.
+     */
+    private void startPersistTimer(){
+        if(tcb.getSendWindow() > 0 || tcb.getBytesInFlight() > 0){
+            probes = 0;
+            return;
+        }
+
+        if(persistTimer != null || !tcb.canTransmit() || !tcb.hasDataToTransmit()){
+            return;
+        }
+
+        int timeout = Math.min(tcb.getMaxRetransmissionTimeout(), tcb.getRetransmissionTimeout() << Math.min(probes, 16));
+        Log.v(TAG, "Send window is closed, probing it in " + timeout + " ms");
+        persistTimer = timingWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (tcb){
+                    persistTimer = null;
+                    if(tcb.getSendWindow() == 0 && tcb.getBytesInFlight() == 0 && tcb.canTransmit()){
+                        sendWindowProbe();
+                    }
+                }
+                transmit();
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send a segment with an old sequence number, which the receiver answers with an ACK
+     * that holds its current window. Should be called while holding the tcb lock.
+     */
+    private void sendWindowProbe(){
+        probes++;
+        long seq = (tcb.getSendNext() - 1 + Integer.MAX_VALUE) % Integer.MAX_VALUE;
+        Segment segment = SegmentUtil.getPacket(tcb, seq, tcb.getReceiveNext());
+        sendControlSegment(segment, "window probe #" + probes);
+        tcb.onAckSent();
+    }
+
+    /**
+     * Send a segment without data, which is not retransmitted.
+     * @param segment
+     * @param description used for logging
+     */
+    private void sendControlSegment(Segment segment, String description){
+        IP.Packet packet = IPUtil.getPacket(segment);
+        try {
+            Log.v(TAG, "Sending " + description + ": " + segment.toString());
+            ip.ip_send(packet);
+        } catch (IOException e) {
+            Log.e(TAG, "Error while sending " + description, e);
+        }
+    }
+
+    /**
+     * Check with the pacer whether a segment of len bytes may be sent now. If not, start a
+     * timer to transmit again when it may. Should be called while holding the tcb lock.
+     * @param len
+     * @return true if and only if the segment may be sent now
+     */
+    private boolean pace(int len){
+        if(pacingTimer != null){
+            // already waiting for the pacer
+            return false;
+        }
+
+        CongestionControl congestionControl = tcb.getCongestionControl();
+        Pacer pacer = tcb.getPacer();
+        long now = System.nanoTime();
+        pacer.update(congestionControl.getCongestionWindow(), congestionControl.getSlowStartThreshold(), tcb.getSmoothedRtt(), now);
+
+        long delay = pacer.consume(len, now);
+        if(delay == 0){
+            return true;
+        }
+
+        Log.v(TAG, "Pacing: waiting " + delay + " ms before sending " + len + " bytes (" + pacer.getRate() + " bytes/s)");
+        pacingTimer = timingWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (tcb){
+                    pacingTimer = null;
+                }
+                transmit();
+                tcb.notifyWritable();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return false;
+    }
+
+    /**
+     * A segment that waits to be sent, with the packet it is being encoded into.
+     */
+    private static class Outgoing {
+
+        private final Segment segment;
+        private final Future<IP.Packet> packet;
+
+        Outgoing(Segment segment, Future<IP.Packet> packet){
+            this.segment = segment;
+            this.packet = packet;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package nl.vu.cs.cn.tcp.segment;
 
+import java.io.UnsupportedEncodingException;
+
+import nl.vu.cs.cn.IP;
 import nl.vu.cs.cn.tcp.TransmissionControlBlock;
 
 public abstract class SegmentUtil {
@@ -13,7 +16,7 @@ public abstract class SegmentUtil {
         Segment segment = new Segment(
                 tcb.getLocalAddr(), tcb.getForeignAddr(),
                 tcb.getLocalport(), tcb.getForeignPort(),
-                seq, tcb.getSendWindow());
+                seq, (short) tcb.advertiseReceiveWindow());
 
         segment.setIsSyn(true);
         return segment;
@@ -41,7 +44,7 @@ public abstract class SegmentUtil {
         Segment segment = new Segment(
                 tcb.getLocalAddr(), tcb.getForeignAddr(),
                 tcb.getLocalport(), tcb.getForeignPort(),
-                seq, tcb.getSendWindow(), ack);
+                seq, (short) tcb.advertiseReceiveWindow(), ack);
 
         // isAck is automatically set because we passed an ack num to Segment
 
@@ -57,7 +60,7 @@ public abstract class SegmentUtil {
         Segment segment = new Segment(
                 tcb.getLocalAddr(), tcb.getForeignAddr(),
                 tcb.getLocalport(), tcb.getForeignPort(),
-                seq, tcb.getSendWindow(), ack);
+                seq, (short) tcb.advertiseReceiveWindow(), ack);
 
         segment.setIsFin(true);
         // isAck is automatically set because we passed an ack num to Segment
@@ -103,8 +106,8 @@ public abstract class SegmentUtil {
      * @param ack
      * @return
      */
-    public static boolean isAcked(Segment segment, long ack){
-        return SegmentUtil.inWindow(segment.getSeq(), segment.getLastSeq(), ack);
+    public static boolean isAcked(ReadableSegment segment, long ack){
+        return isAcked(segment.getSeq(), ack, segment.getLen());
     }
 
     /**
@@ -119,8 +122,38 @@ public abstract class SegmentUtil {
      * @return
      */
     public static boolean isAcked(long seq, long ack, int segmentLen){
-        long lastSeq = (segmentLen > 0) ? (seq + segmentLen - 1) % Integer.MAX_VALUE : seq;
-        return SegmentUtil.inWindow(seq, lastSeq, ack);
+        // the ack must be at or after the end of the segment. An ack that lies (far) before the
+        // segment can only be an old ack, so only the nearest half of the sequence space counts.
+        long distance = ((ack - seq) % Integer.MAX_VALUE + Integer.MAX_VALUE) % Integer.MAX_VALUE;
+        return distance >= segmentLen && distance < Integer.MAX_VALUE / 2;
     }
 
+    /**
+     * Describe a segment for logging.
+     * @param segment
+     * @return
+     */
+    public static String toString(ReadableSegment segment) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[src: ").append(IP.IpAddress.htoa(segment.getSourceAddr().getAddress())).append(":").append(segment.getSourcePort()).append("] ");
+        sb.append("[dst: ").append(IP.IpAddress.htoa(segment.getDestinationAddr().getAddress())).append(":").append(segment.getDestinationPort()).append("] ");
+        sb.append(" | SEQ: ").append(segment.getSeq());
+        if(segment.isAck()) sb.append(" | ACK: ").append(segment.getAck());
+        sb.append(" | WND: ").append(segment.getWindow());
+        sb.append(" | ");
+        sb.append("checksum: ").append(Integer.toHexString(segment.getChecksum())).append(" | ");
+        if(segment.isUrg()) sb.append("URG, ");
+        if(segment.isAck()) sb.append("ACK, ");
+        if(segment.isPsh()) sb.append("PSH, ");
+        if(segment.isRst()) sb.append("RST, ");
+        if(segment.isSyn()) sb.append("SYN, ");
+        if(segment.isFin()) sb.append("FIN ");
+        if(segment.getDataLength() > 0) try {
+            sb.append(" | [").append(new String(segment.getData(), segment.getDataOffset(), segment.getDataLength(), "UTF-8")).append("]");
+        } catch (UnsupportedEncodingException e) {
+            sb.append(" | [").append(new String(segment.getData(), segment.getDataOffset(), segment.getDataLength())).append("]");
+        }
+
+        return sb.toString();
+    }
 }
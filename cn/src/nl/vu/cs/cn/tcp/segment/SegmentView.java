@@ -0,0 +1,178 @@
+package nl.vu.cs.cn.tcp.segment;
+
+import nl.vu.cs.cn.IP;
+import nl.vu.cs.cn.tcp.ChecksumUtil;
+
+/**
+ * SegmentView is a read-only segment on top of the bytes of a received packet. Header
+ * fields are read from the packet when they are requested, and the data is the part of
+ * the packet array after the header, so nothing is parsed or copied up front.
+ *
+ * The addresses are kept as IpAddress objects, which are only created again when a
+ * packet arrives from or for another address.
+ *
+ * A single view can be reused for every packet that is received by calling wrap().
+ * Because of that, a view should not be kept after the segment has been handled: copy
+ * the data that has to be kept instead.
+ */
+public class SegmentView implements ReadableSegment {
+
+    private byte[] packet;
+    private int offset;         // offset of the tcp header in packet
+    private int length;         // length of tcp header + data
+    private int sourceAddr;
+    private int destinationAddr;
+    private IP.IpAddress sourceIpAddr;          // sourceAddr, null until a packet is wrapped
+    private IP.IpAddress destinationIpAddr;     // destinationAddr, null until a packet is wrapped
+
+    /**
+     * Point this view at the tcp segment held by an IP packet.
+     * @param packet
+     * @return true if and only if the packet holds a complete tcp header
+     */
+    public boolean wrap(IP.Packet packet){
+        return wrap(packet.data, 0, packet.data.length, packet.source, packet.destination);
+    }
+
+    /**
+     * Point this view at a tcp segment.
+     * @param packet array holding the segment
+     * @param offset offset of the tcp header in packet
+     * @param length length of the tcp header and data
+     * @param sourceAddr
+     * @param destinationAddr
+     * @return true if and only if the segment holds a complete tcp header
+     */
+    public boolean wrap(byte[] packet, int offset, int length, int sourceAddr, int destinationAddr){
+        this.packet = packet;
+        this.offset = offset;
+        this.length = length;
+
+        if(sourceIpAddr == null || sourceAddr != this.sourceAddr){
+            sourceIpAddr = IP.IpAddress.getAddress(sourceAddr);
+        }
+        if(destinationIpAddr == null || destinationAddr != this.destinationAddr){
+            destinationIpAddr = IP.IpAddress.getAddress(destinationAddr);
+        }
+        this.sourceAddr = sourceAddr;
+        this.destinationAddr = destinationAddr;
+
+        if(length < Segment.HEADER_SIZE){
+            return false;
+        }
+
+        int headerLength = getDataOffset() - offset;
+        return headerLength >= Segment.HEADER_SIZE && headerLength <= length;
+    }
+
+    public IP.IpAddress getSourceAddr(){
+        return sourceIpAddr;
+    }
+
+    public short getSourcePort() {
+        return getShort(0);
+    }
+
+    public IP.IpAddress getDestinationAddr(){
+        return destinationIpAddr;
+    }
+
+    public short getDestinationPort() {
+        return getShort(2);
+    }
+
+    public long getSeq() {
+        return getInt(4);
+    }
+
+    public long getLastSeq() {
+        return (getLen() == 0) ? getSeq() : ((getSeq() + getLen() - 1) % Integer.MAX_VALUE);
+    }
+
+    public long getAck() {
+        return getInt(8);
+    }
+
+    public int getWindow() {
+        return getShort(14) & 0xFFFF;
+    }
+
+    public int getLen() {
+        int len = getDataLength();
+        if(isSyn()) len += 1;
+        if(isFin()) len += 1;
+        return len;
+    }
+
+    public byte[] getData(){
+        return packet;
+    }
+
+    /**
+     * The data starts after the header, its size is given by the data offset field.
+     * @return
+     */
+    public int getDataOffset(){
+        return offset + ((packet[offset + 12] >> 4) & 0xF) * 4;
+    }
+
+    public int getDataLength(){
+        return offset + length - getDataOffset();
+    }
+
+    public boolean isUrg() {
+        return (getControlBits() & Segment.URG_MASK) != 0;
+    }
+
+    public boolean isAck() {
+        return (getControlBits() & Segment.ACK_MASK) != 0;
+    }
+
+    public boolean isPsh() {
+        return (getControlBits() & Segment.PSH_MASK) != 0;
+    }
+
+    public boolean isRst() {
+        return (getControlBits() & Segment.RST_MASK) != 0;
+    }
+
+    public boolean isSyn() {
+        return (getControlBits() & Segment.SYN_MASK) != 0;
+    }
+
+    public boolean isFin() {
+        return (getControlBits() & Segment.FIN_MASK) != 0;
+    }
+
+    public short getChecksum(){
+        return getShort(16);
+    }
+
+    /**
+     * Verify the checksum. The checksum over the packet including its checksum is 0.
+     * @return
+     */
+    public boolean hasValidChecksum(){
+        return ChecksumUtil.calculateChecksum(sourceAddr, destinationAddr, packet, offset, length) == 0;
+    }
+
+    @Override
+    public String toString() {
+        return SegmentUtil.toString(this);
+    }
+
+    private int getControlBits(){
+        return packet[offset + 13];
+    }
+
+    private short getShort(int position){
+        return (short) (((packet[offset + position] & 0xFF) << 8) | (packet[offset + position + 1] & 0xFF));
+    }
+
+    private int getInt(int position){
+        return ((packet[offset + position] & 0xFF) << 24)
+                | ((packet[offset + position + 1] & 0xFF) << 16)
+                | ((packet[offset + position + 2] & 0xFF) << 8)
+                | (packet[offset + position + 3] & 0xFF);
+    }
+}
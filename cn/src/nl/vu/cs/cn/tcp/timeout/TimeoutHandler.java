@@ -37,21 +37,20 @@ public class TimeoutHandler implements OnTimeoutListener {
         tcb.enterState(TransmissionControlBlock.State.CLOSED);
     }
 
-    public void onRetransmissionTimeout(RetransmissionSegment retransmissionSegment){
-        Segment segment = retransmissionSegment.getSegment();
-        synchronized (tcb){
-            // remove segment from the retransmission queue
-            if(!tcb.removeFromRetransmissionQueue(retransmissionSegment)){
-                // the segment did not exist in the queue anymore
-                return;
-            }
-
-            // double check if segment is not acknowledged by now
-            if(SegmentUtil.isAcked(segment, tcb.getSendUnacknowledged())){
-                // the sequence number has been completely acknowledged by now
-                return;
-            }
+    /**
+     * Called when the retransmission timer of the connection expires, while holding the tcb
+     * lock. Only the oldest unacknowledged segment is retransmitted, the RTO is doubled and
+     * the timer is started again (RFC 6298 sections 5.4 to 5.6). The congestion window
+     * drops to one segment, so the SegmentSender resends the segments after it only when
+     * ACKs open the window again.
+     */
+    public void onRetransmissionTimeout(){
+        RetransmissionSegment retransmissionSegment = tcb.getOldestUnacknowledgedSegment();
+        if(retransmissionSegment == null){
+            // everything has been acknowledged by now
+            return;
         }
+        Segment segment = retransmissionSegment.getSegment();
 
         int retryNum = retransmissionSegment.getRetry();
         if(retryNum >= TransmissionControlBlock.MAX_RETRANSMITS){
@@ -70,22 +69,32 @@ public class TimeoutHandler implements OnTimeoutListener {
             }
 
             // TODO: according to RFC 1122, we want to close the connection now (since something is obviously wrong)
+            // enter CLOSED first, so a close() that wakes up when the queue is cleared
+            // sees the connection was aborted, instead of all data being acknowledged
             tcb.enterState(TransmissionControlBlock.State.CLOSED);
+            tcb.clearRetransmissionQueue();
         } else {
             Log.v(getTag(), "Segment " + segment.getSeq() + " was not ACKed. Retry #" + (retryNum+1));
 
             retransmissionSegment.increaseRetry();
+            tcb.backoffRetransmissionTimeout();
+            tcb.getCongestionControl().onRetransmissionTimeout(tcb.getBytesInFlight());
+
+            // the timer takes over loss recovery, the segments after this one are resent as
+            // the congestion window opens again
+            tcb.exitFastRecovery();
+            tcb.enterLossRecovery(segment.getSeq() + segment.getLen());
 
             IP.Packet packet = IPUtil.getPacket(segment);
             try {
                 int bytesSent = ip.ip_send(packet);
                 Log.v(getTag(), "Resent " + bytesSent + " bytes.");
             } catch (IOException e) {
-                // if an error occurs set a timer again and retry afterwards
+                // the timer is started again, so it will be retried afterwards
                 Log.w(getTag(), "Error while resending packet", e);
             } finally {
-                // retrying, so add segment to the retransmission queue again
-                tcb.addToRetransmissionQueue(retransmissionSegment);
+                // retrying, so wait for the ACK again with the backed off timeout
+                tcb.restartRetransmissionTimer();
             }
         }
     }
@@ -94,6 +103,27 @@ public class TimeoutHandler implements OnTimeoutListener {
         tcb.enterState(TransmissionControlBlock.State.CLOSED);
     }
 
+    public void onDelayedAckTimeout(){
+        synchronized (tcb){
+            if(!tcb.hasDelayedAck()){
+                // the ACK has been sent by now, e.g. together with data
+                return;
+            }
+
+            // send ACK <SEQ=SND.NXT><ACK=RCV.NXT><CTL=ACK>
+            Segment segment = SegmentUtil.getPacket(tcb, tcb.getSendNext(), tcb.getReceiveNext());
+            IP.Packet packet = IPUtil.getPacket(segment);
+            try {
+                Log.v(getTag(), "Sending delayed ACK: " + segment.toString());
+                ip.ip_send(packet);
+            } catch (IOException e) {
+                Log.e(getTag(), "Error while sending delayed ACK", e);
+            }
+
+            tcb.onAckSent();
+        }
+    }
+
     /**
      * We have to determine the log TAG runtime (we don't know if we're the client or
      * the server up front)
@@ -0,0 +1,185 @@
+package nl.vu.cs.cn.tcp.timeout;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.vu.cs.cn.Log;
+
+/**
+ * TimingWheel is a hashed timing wheel that runs the timers of all connections
+ * (retransmission, TIME WAIT, ...) on a single thread.
+ *
+ * The wheel consists of WHEEL_SIZE buckets that each cover TICK_MS ms. A timer is added
+ * to the bucket in which it expires, together with the number of full rotations that
+ * have to pass first. Each bucket is a doubly linked list, so both scheduling and
+ * cancelling a timer take constant time. Every tick, the thread walks one bucket and
+ * runs the timers that expired.
+ *
+ * Timers run on the thread of the wheel, so they should not block.
+ */
+public class TimingWheel {
+
+    private static final String TAG = "TimingWheel";
+
+    public static final int TICK_MS = 10;           // resolution of the wheel in ms
+    private static final int WHEEL_SIZE = 512;      // number of buckets, one rotation takes WHEEL_SIZE * TICK_MS ms
+
+    private static TimingWheel instance;
+
+    private final Timeout[] wheel;  // sentinel of the timer list of every bucket
+    private long tick;              // number of ticks that passed since the wheel started
+    private final long startTime;   // in ns
+
+    /**
+     * Get the timing wheel that is shared by all connections. The thread of the wheel
+     * is started on the first call.
+     * @return
+     */
+    public static synchronized TimingWheel getInstance(){
+        if(instance == null){
+            instance = new TimingWheel();
+            instance.start();
+        }
+        return instance;
+    }
+
+    private TimingWheel(){
+        wheel = new Timeout[WHEEL_SIZE];
+        for(int i=0; i<WHEEL_SIZE; i++){
+            wheel[i] = new Timeout(null, 0);
+            wheel[i].next = wheel[i];
+            wheel[i].prev = wheel[i];
+        }
+        startTime = System.nanoTime();
+    }
+
+    private void start(){
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while(true){
+                    try {
+                        waitForNextTick();
+                    } catch (InterruptedException e) {
+                        // ignore, the wheel keeps running
+                    }
+                    expireTimeouts();
+                }
+            }
+        }, TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Schedule a task to run once after the given delay. The delay is rounded up to
+     * the next tick.
+     *
+     * @param task
+     * @param delay
+     * @param unit
+     * @return a handle to cancel the task
+     */
+    public synchronized Timeout schedule(Runnable task, long delay, TimeUnit unit){
+        long ticks = Math.max(1, (unit.toMillis(delay) + TICK_MS - 1) / TICK_MS);
+
+        Timeout timeout = new Timeout(task, (ticks - 1) / WHEEL_SIZE);
+        Timeout bucket = wheel[(int) ((tick + ticks) % WHEEL_SIZE)];
+
+        // append to the bucket
+        timeout.prev = bucket.prev;
+        timeout.next = bucket;
+        bucket.prev.next = timeout;
+        bucket.prev = timeout;
+
+        return timeout;
+    }
+
+    private synchronized boolean cancel(Timeout timeout){
+        if(timeout.prev == null){
+            // already expired or cancelled
+            return false;
+        }
+
+        unlink(timeout);
+        return true;
+    }
+
+    private void unlink(Timeout timeout){
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.next = null;
+        timeout.prev = null;
+    }
+
+    private void waitForNextTick() throws InterruptedException {
+        long deadline = startTime + TimeUnit.MILLISECONDS.toNanos((tick + 1) * TICK_MS);
+        long sleepMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if(sleepMs > 0){
+            Thread.sleep(sleepMs);
+        }
+    }
+
+    /**
+     * Advance the wheel by one tick, and run all timers in the new bucket that
+     * expire in this rotation.
+     */
+    private void expireTimeouts(){
+        Timeout expired = null;
+
+        synchronized (this){
+            tick++;
+            Timeout bucket = wheel[(int) (tick % WHEEL_SIZE)];
+            Timeout timeout = bucket.next;
+            while(timeout != bucket){
+                Timeout next = timeout.next;
+                if(timeout.rounds <= 0){
+                    unlink(timeout);
+
+                    // collect expired timeouts, they are run outside the lock
+                    timeout.next = expired;
+                    expired = timeout;
+                } else {
+                    timeout.rounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        while(expired != null){
+            Timeout timeout = expired;
+            expired = timeout.next;
+            timeout.next = null;
+
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error while running timer", e);
+            }
+        }
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public class Timeout {
+
+        private final Runnable task;
+        private long rounds;    // number of rotations before the timer expires
+
+        private Timeout prev;   // null once the timer expired or was cancelled
+        private Timeout next;
+
+        private Timeout(Runnable task, long rounds){
+            this.task = task;
+            this.rounds = rounds;
+        }
+
+        /**
+         * Cancel the task, if it did not run yet.
+         * @return true if and only if the task was cancelled before it ran
+         */
+        public boolean cancel(){
+            return TimingWheel.this.cancel(this);
+        }
+    }
+}
@@ -2,15 +2,23 @@ package nl.vu.cs.cn;
 
 import android.util.Log;
 
+import java.io.IOException;
+
 import junit.framework.TestCase;
 
+import nl.vu.cs.cn.tcp.Pacer;
 import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+import nl.vu.cs.cn.tcp.segment.Segment;
+import nl.vu.cs.cn.tcp.segment.SegmentUtil;
 
 
 public class TestBase extends TestCase {
 
     public static final String TAG = "TCPTest";
 
+    // bounds the backoff, so a test sees a connection abort within seconds
+    protected static final int MAX_RTO_MS = 4000;
+
     private static final int CLIENT_ADDR_LAST_OCTET = 15;
     private static final int SERVER_ADDR_LAST_OCTET = 16;
 
@@ -38,6 +46,9 @@ public class TestBase extends TestCase {
 
         clientSocket = client.socket();
         serverSocket = server.socket(SERVER_PORT);
+
+        client.tcb.setMaxRetransmissionTimeout(MAX_RTO_MS);
+        server.tcb.setMaxRetransmissionTimeout(MAX_RTO_MS);
     }
 
     @Override
@@ -133,6 +144,57 @@ public class TestBase extends TestCase {
         return thread;
     }
 
+    /**
+     * Block until the client enters one of the given states
+     * @param states
+     */
+    protected void waitForClientStates(TransmissionControlBlock.State... states){
+        client.tcb.waitForStates(states);
+    }
+
+    /**
+     * Block until the server enters one of the given states
+     * @param states
+     */
+    protected void waitForServerStates(TransmissionControlBlock.State... states){
+        server.tcb.waitForStates(states);
+    }
+
+    /**
+     * Block until all data sent by the client has been acknowledged
+     */
+    protected void waitUntilClientAcknowledged(){
+        client.tcb.waitUntilAllAcknowledged();
+    }
+
+    protected Pacer getClientPacer(){
+        return client.tcb.getPacer();
+    }
+
+    protected int getClientSendWindow(){
+        return client.tcb.getSendWindow();
+    }
+
+    /**
+     * Send a segment with data at SND.NXT of the client that ACKs RCV.NXT, without queueing
+     * the data on the client, like the window probe of a stack that probes with new data.
+     * @param data
+     * @throws IOException
+     */
+    protected void sendClientSegment(byte[] data) throws IOException {
+        Segment segment = SegmentUtil.getPacket(client.tcb, client.tcb.getSendNext(), client.tcb.getReceiveNext());
+        segment.setData(data, 0, data.length);
+        client.ip.ip_send(IPUtil.getPacket(segment));
+    }
+
+    protected int getClientRetransmissionTimeouts(){
+        return client.tcb.getRetransmissionTimeouts();
+    }
+
+    protected void setServerDelayedAckTimeout(int ms){
+        server.tcb.setDelayedAckTimeout(ms);
+    }
+
     protected TransmissionControlBlock.State getClientState(){
         return client.getState();
     }
@@ -31,6 +31,8 @@ public class UnreliableIPStack extends IP {
 
     private List<StackSetting> stackSettings = Collections.synchronizedList(new ArrayList<StackSetting>());
     private int delayMs;
+    private final Map<Type, Integer> outgoingCount = new EnumMap<Type, Integer>(Type.class);
+    private final List<Long> outgoingDataSeqs = new ArrayList<Long>();     // guarded by outgoingCount
 
     UnreliableIPStack(int address) throws IOException {
         super(address);
@@ -42,6 +44,34 @@ public class UnreliableIPStack extends IP {
 
     public void reset(){
         stackSettings.clear();
+        synchronized (outgoingCount) {
+            outgoingCount.clear();
+            outgoingDataSeqs.clear();
+        }
+    }
+
+    /**
+     * Get the number of segments of the given type that have been sent (including
+     * dropped and corrupted segments)
+     * @param type
+     * @return
+     */
+    public int getOutgoingCount(Type type){
+        synchronized (outgoingCount) {
+            Integer count = outgoingCount.get(type);
+            return (count == null) ? 0 : count;
+        }
+    }
+
+    /**
+     * Get the sequence numbers of the DATA segments that have been sent (including
+     * dropped and corrupted segments), in the order they were sent
+     * @return
+     */
+    public List<Long> getOutgoingDataSeqs(){
+        synchronized (outgoingCount) {
+            return new ArrayList<Long>(outgoingDataSeqs);
+        }
     }
 
     public UnreliableIPStack dropIncoming(Type type, int... num){
@@ -77,6 +107,13 @@ public class UnreliableIPStack extends IP {
         Segment segment = new Segment(dataClone, p.source, p.destination);
         Type packetType = getType(segment);
 
+        synchronized (outgoingCount) {
+            outgoingCount.put(packetType, getOutgoingCount(packetType) + 1);
+            if(packetType == Type.DATA){
+                outgoingDataSeqs.add(segment.getSeq());
+            }
+        }
+
         Random rand = new Random();
 
         synchronized (stackSettings) {
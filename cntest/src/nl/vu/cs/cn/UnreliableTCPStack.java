@@ -1,6 +1,7 @@
 package nl.vu.cs.cn;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * TCP stack that uses an unreliable ip stack capable of dropping/corrupted specific packets.
@@ -40,6 +41,14 @@ public class UnreliableTCPStack extends TCP {
         return this;
     }
 
+    public int getOutgoingCount(UnreliableIPStack.Type type){
+        return unreliableIPStack.getOutgoingCount(type);
+    }
+
+    public List<Long> getOutgoingDataSeqs(){
+        return unreliableIPStack.getOutgoingDataSeqs();
+    }
+
     public void reset(){
         unreliableIPStack.reset();
     }
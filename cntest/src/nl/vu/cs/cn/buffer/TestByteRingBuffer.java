@@ -0,0 +1,173 @@
+package nl.vu.cs.cn.buffer;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import nl.vu.cs.cn.tcp.ByteRingBuffer;
+
+public class TestByteRingBuffer extends TestCase {
+
+    public void testPutGet() throws Exception {
+        ByteRingBuffer buffer = new ByteRingBuffer(8);
+        byte[] in = {1, 2, 3, 4, 5};
+        byte[] out = new byte[5];
+
+        assertEquals(5, buffer.put(in, 0, in.length));
+        assertEquals(5, buffer.size());
+        assertEquals(3, buffer.free());
+
+        assertEquals(5, buffer.get(out, 0, out.length));
+        assertTrue(Arrays.equals(in, out));
+        assertTrue(buffer.isEmpty());
+    }
+
+    public void testBounded() throws Exception {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+        byte[] in = {1, 2, 3, 4, 5, 6};
+
+        assertEquals("Only the free space should be filled", 4, buffer.put(in, 0, in.length));
+        assertEquals(0, buffer.free());
+        assertEquals(0, buffer.put(in, 4, 2));
+    }
+
+    public void testWrapAround() throws Exception {
+        ByteRingBuffer buffer = new ByteRingBuffer(5);
+        byte[] out = new byte[5];
+
+        buffer.put(new byte[]{1, 2, 3}, 0, 3);
+        assertEquals(2, buffer.get(out, 0, 2));
+
+        // this put wraps around the end of the backing array
+        assertEquals(4, buffer.put(new byte[]{4, 5, 6, 7}, 0, 4));
+        assertEquals(5, buffer.size());
+
+        assertEquals(5, buffer.get(out, 0, 5));
+        assertTrue(Arrays.equals(new byte[]{3, 4, 5, 6, 7}, out));
+    }
+
+    public void testPutByteBuffer() throws Exception {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+        byte[] out = new byte[4];
+
+        buffer.put(new byte[]{1, 2}, 0, 2);
+        buffer.get(out, 0, 2);
+
+        // this put wraps around the end of the backing array, and does not fit completely
+        ByteBuffer src = ByteBuffer.allocateDirect(5);
+        src.put(new byte[]{3, 4, 5, 6, 7}).flip();
+        assertEquals(4, buffer.put(src));
+        assertEquals("Position should be advanced by the bytes added", 1, src.remaining());
+
+        assertEquals(4, buffer.get(out, 0, 4));
+        assertTrue(Arrays.equals(new byte[]{3, 4, 5, 6}, out));
+    }
+
+    public void testGetByteBuffer() throws Exception {
+        ByteRingBuffer buffer = new ByteRingBuffer(5);
+        buffer.put(new byte[]{0, 0, 0}, 0, 3);
+        buffer.skip(3);
+
+        // the data wraps around the end of the backing array
+        buffer.put(new byte[]{1, 2, 3, 4, 5}, 0, 5);
+
+        ByteBuffer heap = ByteBuffer.allocate(3);
+        assertEquals(3, buffer.get(heap));
+        assertFalse(heap.hasRemaining());
+        assertTrue(Arrays.equals(new byte[]{1, 2, 3}, heap.array()));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(4);
+        assertEquals("Only the stored bytes should be moved", 2, buffer.get(direct));
+        assertEquals(2, direct.position());
+        assertEquals(4, direct.get(0));
+        assertEquals(5, direct.get(1));
+        assertTrue(buffer.isEmpty());
+    }
+
+    public void testPeekSkip() throws Exception {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+        byte[] out = new byte[3];
+
+        buffer.put(new byte[]{1, 2, 3}, 0, 3);
+        assertEquals(3, buffer.peek(out, 0, 3));
+        assertEquals("Peek should not remove data", 3, buffer.size());
+
+        assertEquals(2, buffer.skip(2));
+        assertEquals(1, buffer.peek(out, 0, 3));
+        assertEquals(3, out[0]);
+        assertEquals("Only the stored bytes can be skipped", 1, buffer.skip(5));
+        assertTrue(buffer.isEmpty());
+    }
+
+    public void testPeekPosition() throws Exception {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+        byte[] out = new byte[4];
+
+        // wrap the data around the end of the array
+        buffer.put(new byte[]{0, 0, 1, 2}, 0, 4);
+        buffer.skip(2);
+        buffer.put(new byte[]{3, 4}, 0, 2);
+
+        assertEquals(2, buffer.peek(1, out, 0, 2));
+        assertEquals(2, out[0]);
+        assertEquals(3, out[1]);
+        assertEquals("Only the bytes after position can be copied", 1, buffer.peek(3, out, 0, 4));
+        assertEquals(4, out[0]);
+        assertEquals(0, buffer.peek(4, out, 0, 4));
+        assertEquals("Peek should not remove data", 4, buffer.size());
+    }
+
+    public void testView() throws Exception {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+
+        // wrap the data around the end of the array
+        buffer.put(new byte[]{0, 0, 1, 2}, 0, 4);
+        buffer.skip(2);
+        buffer.put(new byte[]{3, 4}, 0, 2);
+
+        ByteBuffer view = buffer.view(4);
+        assertTrue(view.isReadOnly());
+        assertEquals("Only the bytes up to the end of the array can be viewed", 2, view.remaining());
+        assertEquals(1, view.get());
+        assertEquals(2, view.get());
+        assertEquals("A view should not remove data", 4, buffer.size());
+
+        buffer.skip(2);
+        view = buffer.view(1);
+        assertEquals(1, view.remaining());
+        assertEquals(3, view.get(0));
+
+        buffer.clear();
+        assertEquals(0, buffer.view(4).remaining());
+    }
+
+    public void testResize() throws Exception {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+        byte[] out = new byte[6];
+
+        // wrap the data around the end of the array
+        buffer.put(new byte[]{0, 0, 1, 2}, 0, 4);
+        buffer.skip(2);
+        buffer.put(new byte[]{3, 4}, 0, 2);
+
+        buffer.resize(8);
+        assertEquals(8, buffer.capacity());
+        assertEquals(4, buffer.free());
+        assertEquals(4, buffer.put(new byte[]{5, 6, 7, 8}, 0, 4));
+
+        buffer.skip(2);
+        buffer.resize(6);
+        assertEquals(0, buffer.free());
+        assertEquals(6, buffer.get(out, 0, 6));
+        assertTrue(Arrays.equals(new byte[]{3, 4, 5, 6, 7, 8}, out));
+
+        try {
+            buffer.put(new byte[]{1, 2, 3}, 0, 3);
+            buffer.resize(2);
+            fail("Expected the buffer not to shrink below its size");
+        } catch (IllegalArgumentException e) {
+            assertEquals(3, buffer.size());
+        }
+    }
+}
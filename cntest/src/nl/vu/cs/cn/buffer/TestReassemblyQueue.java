@@ -0,0 +1,104 @@
+package nl.vu.cs.cn.buffer;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import nl.vu.cs.cn.tcp.segment.ReassemblyQueue;
+
+public class TestReassemblyQueue extends TestCase {
+
+    private static final int WINDOW = 100;
+
+    public void testInOrder() throws Exception {
+        ReassemblyQueue queue = new ReassemblyQueue();
+
+        assertEquals(3, queue.add(10, WINDOW, 10, new byte[]{1, 2, 3}, 0, 3));
+        assertTrue(Arrays.equals(new byte[]{1, 2, 3}, queue.poll(10)));
+        assertNull(queue.poll(13));
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testOutOfOrder() throws Exception {
+        ReassemblyQueue queue = new ReassemblyQueue();
+
+        // second and third segment arrive before the first
+        queue.add(10, WINDOW, 13, new byte[]{4, 5, 6}, 0, 3);
+        queue.add(10, WINDOW, 16, new byte[]{7, 8}, 0, 2);
+        assertNull("Gap at RCV.NXT, nothing should be delivered", queue.poll(10));
+        assertEquals(5, queue.size());
+
+        queue.add(10, WINDOW, 10, new byte[]{1, 2, 3}, 0, 3);
+        assertTrue("All data should be in order once the gap is filled",
+                Arrays.equals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, pollAll(queue, 10)));
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testOverlap() throws Exception {
+        ReassemblyQueue queue = new ReassemblyQueue();
+
+        queue.add(10, WINDOW, 12, new byte[]{3, 4, 5}, 0, 3);
+        queue.add(10, WINDOW, 14, new byte[]{5, 6, 7}, 0, 3);
+        assertEquals(5, queue.size());
+
+        // starts before RCV.NXT, the first byte was already received
+        queue.add(11, WINDOW, 10, new byte[]{1, 2, 3}, 0, 3);
+        assertTrue(Arrays.equals(new byte[]{2, 3, 4, 5, 6, 7}, pollAll(queue, 11)));
+    }
+
+    public void testFillGaps() throws Exception {
+        ReassemblyQueue queue = new ReassemblyQueue();
+
+        queue.add(10, WINDOW, 12, new byte[]{3}, 0, 1);
+        queue.add(10, WINDOW, 15, new byte[]{6, 7}, 0, 2);
+
+        // covers both chunks, only the gaps around them should be stored
+        queue.add(10, WINDOW, 10, new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, 0, 8);
+        assertEquals(8, queue.size());
+        assertTrue("Chunks should not be concatenated", Arrays.equals(new byte[]{1, 2}, queue.poll(10)));
+        assertTrue(Arrays.equals(new byte[]{3, 4, 5, 6, 7, 8}, pollAll(queue, 12)));
+    }
+
+    public void testCopy() throws Exception {
+        ReassemblyQueue queue = new ReassemblyQueue();
+        byte[] buf = {0, 4, 5, 0};
+
+        queue.add(10, WINDOW, 13, buf, 1, 2);
+        Arrays.fill(buf, (byte) 9);
+        queue.add(10, WINDOW, 10, new byte[]{1, 2, 3}, 0, 3);
+        assertTrue("Stored data should not change when the buffer is reused",
+                Arrays.equals(new byte[]{1, 2, 3, 4, 5}, pollAll(queue, 10)));
+    }
+
+    public void testWindow() throws Exception {
+        ReassemblyQueue queue = new ReassemblyQueue();
+
+        assertEquals("Only the part inside the window should be stored", 2, queue.add(10, 4, 12, new byte[]{3, 4, 5}, 0, 3));
+        assertEquals(0, queue.add(10, 4, 20, new byte[]{1}, 0, 1));
+        assertEquals(2, queue.size());
+    }
+
+    public void testWrapAround() throws Exception {
+        ReassemblyQueue queue = new ReassemblyQueue();
+        long rcvNxt = Integer.MAX_VALUE - 2;
+
+        // second segment wraps around to sequence number 0
+        queue.add(rcvNxt, WINDOW, 1, new byte[]{4, 5}, 0, 2);
+        queue.add(rcvNxt, WINDOW, rcvNxt, new byte[]{1, 2, 3}, 0, 3);
+        assertTrue(Arrays.equals(new byte[]{1, 2, 3, 4, 5}, pollAll(queue, rcvNxt)));
+    }
+
+    /**
+     * Poll all chunks that are in order, advancing RCV.NXT past each of them.
+     */
+    private static byte[] pollAll(ReassemblyQueue queue, long rcvNxt){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk;
+        while((chunk = queue.poll(rcvNxt)) != null){
+            out.write(chunk, 0, chunk.length);
+            rcvNxt = (rcvNxt + chunk.length) % Integer.MAX_VALUE;
+        }
+        return out.toByteArray();
+    }
+}
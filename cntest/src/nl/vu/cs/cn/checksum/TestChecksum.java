@@ -26,12 +26,34 @@ public class TestChecksum extends TestCase {
 
         byte[] packet = synSegment.encode();
 
-        short expectedChecksum = (short) 34597;
+        // the SYN advertises the free receive buffer space
+        assertEquals(TransmissionControlBlock.RECEIVE_BUFFER_SIZE, synSegment.getWindow());
+        short expectedChecksum = (short) 0x2711;
 
         assertEquals("Calculated checksum is different from expected checksum.", Integer.toHexString(expectedChecksum),
                 Integer.toHexString(synSegment.getChecksum()));
 
     }
 
+    public void testVerifyChecksum() throws Exception {
+        IP ip = new IP(2);
+        TransmissionControlBlock tcb = new TransmissionControlBlock(ip, false);
+        IP.IpAddress srcAddr = IP.IpAddress.getAddress("192.168.0.2");
+        IP.IpAddress destAddr = IP.IpAddress.getAddress("192.168.0.1");
+
+        tcb.setForeignSocketInfo(destAddr, (short)2048);
+        tcb.setLocalSocketInfo(srcAddr, (short)3110);
+
+        // odd number of data bytes, so the last byte is padded
+        Segment segment = SegmentUtil.getPacket(tcb, 1048261844, 1234);
+        segment.setData(new byte[]{1, 2, 3, 4, 5});
+        byte[] packet = segment.encode();
 
+        Segment received = new Segment(packet, srcAddr.getAddress(), destAddr.getAddress());
+        assertTrue("Checksum of an unmodified packet should be valid", received.hasValidChecksum());
+
+        packet[packet.length - 1] ^= 1;
+        received = new Segment(packet, srcAddr.getAddress(), destAddr.getAddress());
+        assertFalse("Checksum of a modified packet should be invalid", received.hasValidChecksum());
+    }
 }
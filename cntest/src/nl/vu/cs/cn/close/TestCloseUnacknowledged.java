@@ -0,0 +1,64 @@
+package nl.vu.cs.cn.close;
+
+import nl.vu.cs.cn.TestBase;
+import nl.vu.cs.cn.UnreliableIPStack;
+import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test closing a connection while the data that was written is not acknowledged
+ */
+public class TestCloseUnacknowledged extends TestBase {
+
+    private static final byte[] DATA = {1, 2, 3};
+
+    public void testCloseInterrupted() throws Exception {
+        client.dropOutgoing(UnreliableIPStack.Type.DATA);
+        startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+            }
+        });
+        connect();
+
+        assertEquals(DATA.length, clientSocket.write(DATA, 0, DATA.length));
+
+        final AtomicInteger closed = new AtomicInteger(-1);
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                closed.set(clientSocket.close() ? 1 : 0);
+            }
+        });
+        closer.start();
+
+        Thread.sleep(500);
+        closer.interrupt();
+        closer.join(500);
+
+        assertFalse("Expected close() to stop when interrupted", closer.isAlive());
+        assertEquals("Expected close() to fail when interrupted before the FIN was sent", 0, closed.get());
+        assertEquals("Expected no FIN before the data was acknowledged", 0, client.getOutgoingCount(UnreliableIPStack.Type.FIN));
+        assertEquals("Expected the connection to stay open", TransmissionControlBlock.State.ESTABLISHED, getClientState());
+    }
+
+    public void testCloseAborted() throws Exception {
+        client.dropOutgoing(UnreliableIPStack.Type.DATA);
+        startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+            }
+        });
+        connect();
+
+        assertEquals(DATA.length, clientSocket.write(DATA, 0, DATA.length));
+
+        // the connection is aborted once the retransmissions of the data are exhausted
+        assertFalse("Expected close() to fail when the connection was aborted", clientSocket.close());
+        assertEquals("Expected no FIN on an aborted connection", 0, client.getOutgoingCount(UnreliableIPStack.Type.FIN));
+        assertEquals(TransmissionControlBlock.State.CLOSED, getClientState());
+    }
+}
@@ -52,8 +52,8 @@ public class TestConnectAckLoss extends TestConnect {
                 TransmissionControlBlock.State.SYN_RECEIVED,
                 getServerState());
 
-        // wait for server (client will retry 10 times)
-        Thread.sleep(6000);
+        // wait for server to give up (the retransmission timeout is backed off after every retry)
+        waitForServerStates(TransmissionControlBlock.State.CLOSED);
 
         assertEquals("Server never received ACK, should be reset to CLOSED",
                 TransmissionControlBlock.State.CLOSED,
@@ -16,12 +16,34 @@ import nl.vu.cs.cn.TCP;
  *  - public boolean connect(IpAddress dst, int port)
  *  - public void accept()
  *  - public int read(byte[] buf, int offset, int maxlen)
+ *  - public int read(ByteBuffer[] dsts)
+ *  - public void setSoTimeout(int timeout)
+ *  - public int getSoTimeout()
+ *  - public void setConnectTimeout(int timeout)
+ *  - public int getConnectTimeout()
+ *  - public void setReceiveLowWatermark(int bytes)
+ *  - public int getReceiveLowWatermark()
+ *  - public ByteBuffer borrow(int maxlen)
+ *  - public int release(int len)
  *  - public int write(byte[] buf, int offset, int len)
+ *  - public int write(ByteBuffer[] srcs)
+ *  - public long sendFile(FileChannel channel, long position, long count)
+ *  - public WriteFuture writeAsync(byte[] buf, int offset, int len)
+ *  - public void setSendLowWatermark(int bytes)
+ *  - public int getSendLowWatermark()
+ *  - public int awaitWritable(long timeout, TimeUnit unit)
+ *  - public void setOnWritableListener(OnWritableListener listener)
+ *  - public void setTcpNoDelay(boolean on)
+ *  - public boolean getTcpNoDelay()
+ *  - public void setTcpCork(boolean on)
+ *  - public boolean getTcpCork()
+ *  - public void flush()
+ *  - public void setPacingRate(long bytesPerSecond)
  *  - public boolean close()
  */
 public class TestTCPSocketPublicMethods extends TestCase {
 
-    private static final int NUM_PUBLIC_METHODS = 5;
+    private static final int NUM_PUBLIC_METHODS = 27;
     private static final int NUM_CONSTRUCTORS = 0;
 
     private Method[] declaredMethods;
@@ -36,7 +58,7 @@ public class TestTCPSocketPublicMethods extends TestCase {
     }
 
     /**
-     * Test that number of public methods equals 5
+     * Test that number of public methods equals 27
      */
     public void testNumPublicMethods(){
         int numPublicMethods = 0;
@@ -46,7 +68,7 @@ public class TestTCPSocketPublicMethods extends TestCase {
             }
         }
 
-        assertEquals("Socket class should expose exactly 5 public methods",
+        assertEquals("Socket class should expose exactly 27 public methods",
                 NUM_PUBLIC_METHODS, numPublicMethods);
     }
 
@@ -85,6 +107,10 @@ public class TestTCPSocketPublicMethods extends TestCase {
             } else if("accept".equals(method.getName())){
                 assertEquals("Accept() should have 0 params", 0, paramTypes.length);
                 assertEquals("void", method.getReturnType().getName());
+            } else if(("read".equals(method.getName()) || "write".equals(method.getName())) && paramTypes.length == 1){
+                // scattering read and gathering write
+                assertEquals("ByteBuffer[]", paramTypes[0].getSimpleName());
+                assertEquals("int", method.getReturnType().getName());
             } else if("read".equals(method.getName()) || "write".equals(method.getName())){
                 // read() and write() share the same return type and parameters
                 assertEquals(method.getName() + " should have 3 params byte[], int, int", 3, paramTypes.length);
@@ -92,6 +118,58 @@ public class TestTCPSocketPublicMethods extends TestCase {
                 assertEquals("int", paramTypes[1].getName());
                 assertEquals("int", paramTypes[1].getName());
                 assertEquals("int", method.getReturnType().getName());
+            } else if("borrow".equals(method.getName())){
+                assertEquals("Borrow() should have 1 param int", 1, paramTypes.length);
+                assertEquals("int", paramTypes[0].getName());
+                assertEquals("ByteBuffer", method.getReturnType().getSimpleName());
+            } else if("release".equals(method.getName())){
+                assertEquals("Release() should have 1 param int", 1, paramTypes.length);
+                assertEquals("int", paramTypes[0].getName());
+                assertEquals("int", method.getReturnType().getName());
+            } else if("sendFile".equals(method.getName())){
+                assertEquals("SendFile() should have 3 params FileChannel, long, long", 3, paramTypes.length);
+                assertEquals("FileChannel", paramTypes[0].getSimpleName());
+                assertEquals("long", paramTypes[1].getName());
+                assertEquals("long", paramTypes[2].getName());
+                assertEquals("long", method.getReturnType().getName());
+            } else if("writeAsync".equals(method.getName())){
+                assertEquals("WriteAsync() should have 3 params byte[], int, int", 3, paramTypes.length);
+                assertEquals("byte[]", paramTypes[0].getSimpleName());
+                assertEquals("int", paramTypes[1].getName());
+                assertEquals("int", paramTypes[2].getName());
+                assertEquals("WriteFuture", method.getReturnType().getSimpleName());
+            } else if("setSendLowWatermark".equals(method.getName()) || "setReceiveLowWatermark".equals(method.getName())
+                    || "setSoTimeout".equals(method.getName()) || "setConnectTimeout".equals(method.getName())){
+                assertEquals(method.getName() + " should have 1 param int", 1, paramTypes.length);
+                assertEquals("int", paramTypes[0].getName());
+                assertEquals("void", method.getReturnType().getName());
+            } else if("getSendLowWatermark".equals(method.getName()) || "getReceiveLowWatermark".equals(method.getName())
+                    || "getSoTimeout".equals(method.getName()) || "getConnectTimeout".equals(method.getName())){
+                assertEquals(method.getName() + " should have 0 params", 0, paramTypes.length);
+                assertEquals("int", method.getReturnType().getName());
+            } else if("awaitWritable".equals(method.getName())){
+                assertEquals("AwaitWritable() should have 2 params long, TimeUnit", 2, paramTypes.length);
+                assertEquals("long", paramTypes[0].getName());
+                assertEquals("TimeUnit", paramTypes[1].getSimpleName());
+                assertEquals("int", method.getReturnType().getName());
+            } else if("setOnWritableListener".equals(method.getName())){
+                assertEquals("SetOnWritableListener() should have 1 param OnWritableListener", 1, paramTypes.length);
+                assertEquals("OnWritableListener", paramTypes[0].getSimpleName());
+                assertEquals("void", method.getReturnType().getName());
+            } else if("setTcpNoDelay".equals(method.getName()) || "setTcpCork".equals(method.getName())){
+                assertEquals(method.getName() + " should have 1 param boolean", 1, paramTypes.length);
+                assertEquals("boolean", paramTypes[0].getName());
+                assertEquals("void", method.getReturnType().getName());
+            } else if("getTcpNoDelay".equals(method.getName()) || "getTcpCork".equals(method.getName())){
+                assertEquals(method.getName() + " should have 0 params", 0, paramTypes.length);
+                assertEquals("boolean", method.getReturnType().getName());
+            } else if("setPacingRate".equals(method.getName())){
+                assertEquals("SetPacingRate() should have 1 param long", 1, paramTypes.length);
+                assertEquals("long", paramTypes[0].getName());
+                assertEquals("void", method.getReturnType().getName());
+            } else if("flush".equals(method.getName())){
+                assertEquals("Flush() should have 0 params", 0, paramTypes.length);
+                assertEquals("void", method.getReturnType().getName());
             } else if("close".equals(method.getName())){
                 assertEquals("Close() should have 0 params", 0, paramTypes.length);
                 assertEquals("boolean", method.getReturnType().getName());
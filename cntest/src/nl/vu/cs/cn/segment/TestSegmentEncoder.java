@@ -0,0 +1,48 @@
+package nl.vu.cs.cn.segment;
+
+import junit.framework.TestCase;
+
+import nl.vu.cs.cn.IP;
+import nl.vu.cs.cn.IPUtil;
+import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+import nl.vu.cs.cn.tcp.segment.Segment;
+import nl.vu.cs.cn.tcp.segment.SegmentEncoder;
+import nl.vu.cs.cn.tcp.segment.SegmentUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+public class TestSegmentEncoder extends TestCase {
+
+    private static final int NUM_SEGMENTS = 16;
+
+    public void testEncode() throws Exception {
+        TransmissionControlBlock tcb = new TransmissionControlBlock(new IP(2), false);
+        tcb.setLocalSocketInfo(IP.IpAddress.getAddress("192.168.0.2"), (short)3110);
+        tcb.setForeignSocketInfo(IP.IpAddress.getAddress("192.168.0.1"), (short)2048);
+
+        List<Segment> segments = new ArrayList<Segment>();
+        byte[] data = new byte[TransmissionControlBlock.MAX_SEGMENT_SIZE - Segment.HEADER_SIZE];
+        for(int i=0; i<NUM_SEGMENTS; i++){
+            Arrays.fill(data, (byte) i);
+            Segment segment = SegmentUtil.getPacket(tcb, i * data.length, 1234);
+            segment.setData(data, 0, data.length - i);
+            segments.add(segment);
+        }
+
+        List<Future<IP.Packet>> packets = SegmentEncoder.getInstance().encode(segments);
+        assertEquals(NUM_SEGMENTS, packets.size());
+
+        for(int i=0; i<NUM_SEGMENTS; i++){
+            IP.Packet packet = SegmentEncoder.getPacket(packets.get(i), segments.get(i));
+            IP.Packet expected = IPUtil.getPacket(segments.get(i));
+
+            assertEquals(expected.destination, packet.destination);
+            assertEquals(expected.length, packet.length);
+            assertTrue("Expected segment " + i + " to be encoded in order",
+                    Arrays.equals(expected.data, packet.data));
+        }
+    }
+}
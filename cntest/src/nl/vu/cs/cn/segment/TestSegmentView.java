@@ -0,0 +1,88 @@
+package nl.vu.cs.cn.segment;
+
+import junit.framework.TestCase;
+
+import nl.vu.cs.cn.IP;
+import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+import nl.vu.cs.cn.tcp.segment.Segment;
+import nl.vu.cs.cn.tcp.segment.SegmentUtil;
+import nl.vu.cs.cn.tcp.segment.SegmentView;
+
+public class TestSegmentView extends TestCase {
+
+    private static final IP.IpAddress SRC_ADDR = IP.IpAddress.getAddress("192.168.0.2");
+    private static final IP.IpAddress DEST_ADDR = IP.IpAddress.getAddress("192.168.0.1");
+
+    private Segment segment;
+
+    @Override
+    protected void setUp() throws Exception {
+        TransmissionControlBlock tcb = new TransmissionControlBlock(new IP(2), false);
+        tcb.setLocalSocketInfo(SRC_ADDR, (short)3110);
+        tcb.setForeignSocketInfo(DEST_ADDR, (short)2048);
+
+        segment = SegmentUtil.getPacket(tcb, Integer.MAX_VALUE - 1, 1234);
+        segment.setIsFin(true);
+        segment.setData(new byte[]{1, 2, 3});
+    }
+
+    public void testFields() throws Exception {
+        byte[] encoded = segment.encode();
+
+        // put the segment in the middle of a larger array
+        byte[] packet = new byte[encoded.length + 10];
+        System.arraycopy(encoded, 0, packet, 5, encoded.length);
+
+        SegmentView view = new SegmentView();
+        assertTrue(view.wrap(packet, 5, encoded.length, SRC_ADDR.getAddress(), DEST_ADDR.getAddress()));
+
+        assertEquals(segment.getSourcePort(), view.getSourcePort());
+        assertEquals(segment.getDestinationPort(), view.getDestinationPort());
+        assertEquals(segment.getSeq(), view.getSeq());
+        assertEquals(segment.getAck(), view.getAck());
+        assertEquals(segment.getWindow(), view.getWindow());
+        assertTrue(view.isAck());
+        assertTrue(view.isFin());
+        assertFalse(view.isSyn());
+        assertEquals(4, view.getLen());
+        assertEquals(segment.getChecksum(), view.getChecksum());
+        assertTrue(view.hasValidChecksum());
+
+        assertEquals(3, view.getDataLength());
+        assertSame("Data should not be copied", packet, view.getData());
+        assertEquals(5 + Segment.HEADER_SIZE, view.getDataOffset());
+        assertEquals(3, packet[view.getDataOffset() + 2]);
+    }
+
+    public void testReuse() throws Exception {
+        SegmentView view = new SegmentView();
+        IP.Packet packet = new IP.Packet();
+        packet.source = SRC_ADDR.getAddress();
+        packet.destination = DEST_ADDR.getAddress();
+
+        packet.data = segment.encode();
+        assertTrue(view.wrap(packet));
+        assertEquals(3, view.getDataLength());
+
+        packet.data = new byte[Segment.HEADER_SIZE - 1];
+        assertFalse("Truncated header should be rejected", view.wrap(packet));
+    }
+
+    public void testAddressesCached() throws Exception {
+        SegmentView view = new SegmentView();
+        byte[] encoded = segment.encode();
+
+        assertTrue(view.wrap(encoded, 0, encoded.length, SRC_ADDR.getAddress(), DEST_ADDR.getAddress()));
+        IP.IpAddress source = view.getSourceAddr();
+        assertEquals(SRC_ADDR.getAddress(), source.getAddress());
+        assertEquals(DEST_ADDR.getAddress(), view.getDestinationAddr().getAddress());
+
+        // another packet between the same hosts does not create new addresses
+        assertTrue(view.wrap(encoded, 0, encoded.length, SRC_ADDR.getAddress(), DEST_ADDR.getAddress()));
+        assertSame(source, view.getSourceAddr());
+
+        assertTrue(view.wrap(encoded, 0, encoded.length, DEST_ADDR.getAddress(), SRC_ADDR.getAddress()));
+        assertEquals(DEST_ADDR.getAddress(), view.getSourceAddr().getAddress());
+        assertEquals(SRC_ADDR.getAddress(), view.getDestinationAddr().getAddress());
+    }
+}
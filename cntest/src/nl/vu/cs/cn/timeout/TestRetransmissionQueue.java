@@ -0,0 +1,86 @@
+package nl.vu.cs.cn.timeout;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+import nl.vu.cs.cn.IP;
+import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+import nl.vu.cs.cn.tcp.segment.RetransmissionSegment;
+import nl.vu.cs.cn.tcp.segment.Segment;
+import nl.vu.cs.cn.tcp.segment.SegmentUtil;
+
+public class TestRetransmissionQueue extends TestCase {
+
+    private static final int SEGMENT_LEN = 10;
+
+    private TransmissionControlBlock tcb;
+
+    @Override
+    protected void setUp() throws Exception {
+        tcb = new TransmissionControlBlock(new IP(3), false);
+        tcb.setLocalSocketInfo(IP.IpAddress.getAddress("192.168.0.3"), (short) 1234);
+        tcb.setForeignSocketInfo(IP.IpAddress.getAddress("192.168.0.4"), (short) 4321);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        tcb.clearRetransmissionQueue();
+        super.tearDown();
+    }
+
+    public void testCumulativeAck() throws Exception {
+        long seq = Integer.MAX_VALUE - 25;
+        RetransmissionSegment first = queueSegment(seq);
+        for(int i=1; i<5; i++){
+            // the third segment wraps around to sequence number 0
+            queueSegment(seq + i * SEGMENT_LEN);
+        }
+        assertSame(first, tcb.getOldestUnacknowledgedSegment());
+
+        // ACK the first two segments and half of the third one
+        tcb.removeFromRetransmissionQueue((seq + 2 * SEGMENT_LEN + SEGMENT_LEN / 2) % Integer.MAX_VALUE);
+
+        List<Segment> segments = tcb.getUnacknowledgedSegments();
+        assertEquals(3, segments.size());
+        assertEquals((seq + 2 * SEGMENT_LEN) % Integer.MAX_VALUE, segments.get(0).getSeq());
+        assertEquals(segments.get(0), tcb.getOldestUnacknowledgedSegment().getSegment());
+        assertFalse("Acked segment should not be retransmitted", tcb.isInRetransmissionQueue(first));
+
+        tcb.removeFromRetransmissionQueue((seq + 5 * SEGMENT_LEN) % Integer.MAX_VALUE);
+        assertFalse(tcb.hasDataToRetransmit());
+        assertNull(tcb.getOldestUnacknowledgedSegment());
+    }
+
+    public void testSingleTimer() throws Exception {
+        assertFalse(tcb.isRetransmissionTimerRunning());
+
+        RetransmissionSegment first = queueSegment(100);
+        RetransmissionSegment second = queueSegment(100 + SEGMENT_LEN);
+        assertTrue(tcb.isRetransmissionTimerRunning());
+
+        // a retransmitted segment keeps its place in the queue
+        tcb.restartRetransmissionTimer();
+        assertSame(first, tcb.getOldestUnacknowledgedSegment());
+
+        // the timer keeps running while data is unacknowledged
+        tcb.removeFromRetransmissionQueue(100 + SEGMENT_LEN);
+        assertTrue(tcb.isRetransmissionTimerRunning());
+        assertSame(second, tcb.getOldestUnacknowledgedSegment());
+
+        // and stops once everything has been acknowledged
+        tcb.removeFromRetransmissionQueue(100 + 2 * SEGMENT_LEN);
+        assertFalse(tcb.isRetransmissionTimerRunning());
+        tcb.restartRetransmissionTimer();
+        assertFalse(tcb.isRetransmissionTimerRunning());
+    }
+
+    private RetransmissionSegment queueSegment(long seq){
+        Segment segment = SegmentUtil.getPacket(tcb, seq, 0);
+        segment.setData(new byte[SEGMENT_LEN]);
+
+        RetransmissionSegment retransmissionSegment = new RetransmissionSegment(segment);
+        tcb.addToRetransmissionQueue(retransmissionSegment);
+        return retransmissionSegment;
+    }
+}
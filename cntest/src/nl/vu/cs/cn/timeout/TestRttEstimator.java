@@ -0,0 +1,68 @@
+package nl.vu.cs.cn.timeout;
+
+import junit.framework.TestCase;
+
+import nl.vu.cs.cn.tcp.RttEstimator;
+
+public class TestRttEstimator extends TestCase {
+
+    public void testInitialTimeout() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+        assertEquals(RttEstimator.INITIAL_RTO_MS, estimator.getRetransmissionTimeout());
+        assertEquals(-1.0, estimator.getSmoothedRtt(), 0);
+    }
+
+    public void testFirstSample() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+
+        // SRTT = R, RTTVAR = R/2, RTO = SRTT + 4 * RTTVAR
+        estimator.addSample(500);
+        assertEquals(500.0, estimator.getSmoothedRtt(), 0);
+        assertEquals(1500, estimator.getRetransmissionTimeout());
+    }
+
+    public void testSmoothing() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+        estimator.addSample(400);
+
+        // RTTVAR = 3/4 * 200 + 1/4 * |400 - 800| = 250, SRTT = 7/8 * 400 + 1/8 * 800 = 450
+        estimator.addSample(800);
+        assertEquals(450.0, estimator.getSmoothedRtt(), 0.001);
+        assertEquals(1450, estimator.getRetransmissionTimeout());
+    }
+
+    public void testBounds() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+
+        estimator.addSample(1);
+        assertEquals(RttEstimator.MIN_RTO_MS, estimator.getRetransmissionTimeout());
+
+        estimator.addSample(100000);
+        assertEquals(RttEstimator.MAX_RTO_MS, estimator.getRetransmissionTimeout());
+    }
+
+    public void testBackoff() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+        estimator.addSample(100);
+        int rto = estimator.getRetransmissionTimeout();
+
+        estimator.backoff();
+        assertEquals(2 * rto, estimator.getRetransmissionTimeout());
+
+        for(int i=0; i<10; i++){
+            estimator.backoff();
+        }
+        assertEquals(RttEstimator.MAX_RTO_MS, estimator.getRetransmissionTimeout());
+    }
+
+    public void testMaxTimeout() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+        assertTrue("RFC 6298 (2.5) requires a maximum of at least 60 s", RttEstimator.MAX_RTO_MS >= 60000);
+
+        estimator.setMaxRetransmissionTimeout(4000);
+        for(int i=0; i<10; i++){
+            estimator.backoff();
+        }
+        assertEquals(4000, estimator.getRetransmissionTimeout());
+    }
+}
@@ -0,0 +1,126 @@
+package nl.vu.cs.cn.timeout;
+
+import nl.vu.cs.cn.TestBase;
+import nl.vu.cs.cn.UnreliableIPStack;
+import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestSocketTimeout extends TestBase {
+
+    private static final int TIMEOUT = 500;     // in ms
+
+    public void testReadTimeout() throws Exception {
+        final AtomicInteger soTimeout = new AtomicInteger();
+        final AtomicInteger timedOutRead = new AtomicInteger();
+        final AtomicInteger waited = new AtomicInteger();
+        final byte[] expected = {1, 2, 3};
+        final byte[] received = new byte[expected.length];
+
+        Thread serverThread = startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+                serverSocket.setSoTimeout(TIMEOUT);
+                soTimeout.set(serverSocket.getSoTimeout());
+
+                long start = System.currentTimeMillis();
+                timedOutRead.set(serverSocket.read(received, 0, received.length));
+                waited.set((int) (System.currentTimeMillis() - start));
+
+                // the connection is still open after a read timed out
+                serverSocket.setSoTimeout(0);
+                int bytesRead = 0;
+                while(bytesRead < received.length){
+                    bytesRead += serverSocket.read(received, bytesRead, received.length - bytesRead);
+                }
+
+                serverSocket.close();
+            }
+        });
+
+        connect();
+
+        Thread.sleep(2 * TIMEOUT);
+        assertEquals(expected.length, clientSocket.write(expected, 0, expected.length));
+
+        clientSocket.close();
+        serverThread.join();
+
+        // the server sets the timeout after connect() returns, so check it on the server thread
+        assertEquals(TIMEOUT, soTimeout.get());
+        assertEquals("Expected the read to time out", -1, timedOutRead.get());
+        assertTrue("Expected the read to wait for the timeout, but waited " + waited.get() + " ms",
+                waited.get() >= TIMEOUT - 50 && waited.get() < 2 * TIMEOUT);
+        assertTrue("Expected to receive exact same data", Arrays.equals(expected, received));
+    }
+
+    public void testReadInterrupted() throws Exception {
+        final AtomicInteger interruptedRead = new AtomicInteger();
+        final AtomicInteger stillInterrupted = new AtomicInteger();
+        startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+            }
+        });
+        connect();
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                interruptedRead.set(clientSocket.read(new byte[1], 0, 1));
+                stillInterrupted.set(Thread.currentThread().isInterrupted() ? 1 : 0);
+            }
+        });
+        reader.start();
+
+        Thread.sleep(TIMEOUT);
+        reader.interrupt();
+        reader.join(TIMEOUT);
+
+        assertFalse("Expected the read to stop when interrupted", reader.isAlive());
+        assertEquals(-1, interruptedRead.get());
+        assertEquals("Expected the reader to stay interrupted", 1, stillInterrupted.get());
+        assertEquals(TransmissionControlBlock.State.ESTABLISHED, getClientState());
+    }
+
+    public void testAcceptTimeout() throws Exception {
+        serverSocket.setSoTimeout(TIMEOUT);
+
+        long start = System.currentTimeMillis();
+        serverSocket.accept();
+        long waited = System.currentTimeMillis() - start;
+
+        assertTrue("Expected accept() to wait for the timeout, but waited " + waited + " ms",
+                waited >= TIMEOUT - 50 && waited < 2 * TIMEOUT);
+        assertEquals("Expected the server to stop listening", TransmissionControlBlock.State.CLOSED, getServerState());
+    }
+
+    public void testConnectTimeout() throws Exception {
+        client.dropOutgoing(UnreliableIPStack.Type.SYN);
+        startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+            }
+        });
+
+        clientSocket.setConnectTimeout(TIMEOUT);
+        assertEquals(TIMEOUT, clientSocket.getConnectTimeout());
+
+        long start = System.currentTimeMillis();
+        assertFalse(clientSocket.connect(SERVER_IP_ADDR, SERVER_PORT));
+        long waited = System.currentTimeMillis() - start;
+
+        assertTrue("Expected connect() to give up after the timeout, but waited " + waited + " ms",
+                waited >= TIMEOUT - 50 && waited < 2 * TIMEOUT);
+        assertEquals(TransmissionControlBlock.State.CLOSED, getClientState());
+
+        // no SYN is retransmitted after the connection attempt was given up
+        int syns = client.getOutgoingCount(UnreliableIPStack.Type.SYN);
+        Thread.sleep(3 * TIMEOUT);
+        assertEquals(syns, client.getOutgoingCount(UnreliableIPStack.Type.SYN));
+    }
+}
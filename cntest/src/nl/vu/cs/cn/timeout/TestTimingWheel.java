@@ -0,0 +1,63 @@
+package nl.vu.cs.cn.timeout;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nl.vu.cs.cn.tcp.timeout.TimingWheel;
+
+public class TestTimingWheel extends TestCase {
+
+    public void testSchedule() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+
+        TimingWheel.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue("Timer should have run", latch.await(2, TimeUnit.SECONDS));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Timer ran too early (" + elapsedMs + " ms)", elapsedMs >= 100 - TimingWheel.TICK_MS);
+    }
+
+    public void testMultipleRotations() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+
+        // longer than one rotation of the wheel, so the first timer has to skip a rotation
+        TimingWheel.getInstance().schedule(task, 6, TimeUnit.SECONDS);
+        TimingWheel.getInstance().schedule(task, 50, TimeUnit.MILLISECONDS);
+
+        assertFalse("Long timer should not run in the first rotation", latch.await(3, TimeUnit.SECONDS));
+        assertEquals(1, latch.getCount());
+        assertTrue("Long timer should have run", latch.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testCancel() throws Exception {
+        final AtomicBoolean ran = new AtomicBoolean(false);
+
+        TimingWheel.Timeout timeout = TimingWheel.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                ran.set(true);
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(timeout.cancel());
+        assertFalse("Timer can only be cancelled once", timeout.cancel());
+
+        Thread.sleep(300);
+        assertFalse("Cancelled timer should not run", ran.get());
+    }
+}
@@ -0,0 +1,114 @@
+package nl.vu.cs.cn.transmission;
+
+import nl.vu.cs.cn.UnreliableIPStack;
+import nl.vu.cs.cn.tcp.OnWriteCompleteListener;
+import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+import nl.vu.cs.cn.tcp.WriteFuture;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestTransmitAsync extends TestTransmitBase {
+
+    public void testWriteAsync() throws Exception {
+        startServer(new ServerRunnable());
+        connect();
+
+        WriteFuture[] futures = new WriteFuture[data.length];
+        for(int i=0; i<data.length; i++){
+            futures[i] = clientSocket.writeAsync(data[i], 0, data[i].length);
+            assertEquals("Expected all data to be copied into the send buffer", data[i].length, futures[i].getLength());
+        }
+
+        for(WriteFuture future : futures){
+            assertTrue("Expected the write to be acknowledged", future.await());
+        }
+
+        // listeners of completed writes are called right away, on the callback thread
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger onCallerThread = new AtomicInteger(-1);
+        final CountDownLatch called = new CountDownLatch(1);
+        futures[0].setOnWriteCompleteListener(new OnWriteCompleteListener() {
+            @Override
+            public void onWriteComplete(WriteFuture future) {
+                onCallerThread.set(Thread.currentThread() == caller ? 1 : 0);
+                called.countDown();
+            }
+        });
+        assertTrue(called.await(1, TimeUnit.SECONDS));
+        assertEquals("Expected the listener to be called on the callback thread", 0, onCallerThread.get());
+
+        clientSocket.close();
+    }
+
+    public void testBlockingListener() throws Exception {
+        startServer(new ServerRunnable());
+        connect();
+
+        final WriteFuture[] futures = new WriteFuture[data.length];
+        futures[0] = clientSocket.writeAsync(data[0], 0, data[0].length);
+
+        // the listener of the first write waits for the last write, whose ACKs have to be
+        // handled while the listener blocks
+        final AtomicInteger lastAcknowledged = new AtomicInteger(-1);
+        final CountDownLatch called = new CountDownLatch(1);
+        futures[0].setOnWriteCompleteListener(new OnWriteCompleteListener() {
+            @Override
+            public void onWriteComplete(WriteFuture future) {
+                try {
+                    lastAcknowledged.set(futures[data.length - 1].await(10, TimeUnit.SECONDS) ? 1 : 0);
+                } catch (InterruptedException e) {
+                    lastAcknowledged.set(0);
+                }
+                called.countDown();
+            }
+        });
+
+        for(int i=1; i<data.length; i++){
+            futures[i] = clientSocket.writeAsync(data[i], 0, data[i].length);
+        }
+
+        assertTrue("Expected the listener to be called", called.await(20, TimeUnit.SECONDS));
+        assertEquals("Expected ACKs to be handled while a listener blocks", 1, lastAcknowledged.get());
+
+        clientSocket.close();
+    }
+
+    public void testWriteAsyncFailsOnAbort() throws Exception {
+        client.dropOutgoing(UnreliableIPStack.Type.DATA);
+        startServer(new ServerRunnable());
+        connect();
+
+        WriteFuture future = clientSocket.writeAsync(data[1], 0, data[1].length);
+        assertFalse("The write cannot be acknowledged yet", future.isDone());
+
+        assertFalse("Expected the write to fail once retransmissions are exhausted", future.await());
+        assertEquals(TransmissionControlBlock.State.CLOSED, getClientState());
+
+        future = clientSocket.writeAsync(data[1], 0, data[1].length);
+        assertTrue("Expected writes on a closed connection to fail right away", future.isDone());
+        assertFalse(future.isAcknowledged());
+        assertEquals(WriteFuture.Status.FAILED, future.getStatus());
+        assertEquals(0, future.getLength());
+    }
+
+    public void testEmptyWriteAsync() throws Exception {
+        startServer(new ServerRunnable());
+        connect();
+
+        WriteFuture future = clientSocket.writeAsync(data[0], 0, 0);
+        assertTrue("Expected an empty write to be done right away", future.isDone());
+        assertFalse("Expected an empty write not to be acknowledged", future.isAcknowledged());
+        assertEquals(WriteFuture.Status.EMPTY, future.getStatus());
+
+        for(byte[] buf : data){
+            future = clientSocket.writeAsync(buf, 0, buf.length);
+            assertEquals(buf.length, future.getLength());
+        }
+        assertTrue(future.await());
+        assertEquals(WriteFuture.Status.ACKNOWLEDGED, future.getStatus());
+
+        clientSocket.close();
+    }
+}
@@ -59,6 +59,22 @@ public class TestTransmitBase extends TestBase {
         clientSocket.close();
     }
 
+    /**
+     * Write data that will never be acknowledged. The data is accepted into the send window,
+     * but the connection should be aborted once the retransmissions are exhausted.
+     *
+     * @param buf
+     */
+    public void doUnacknowledgedTransmissionTest(byte[] buf) throws Exception {
+        int bytesSent = clientSocket.write(buf, 0, buf.length);
+        assertEquals("Expected data to be accepted into the send window", buf.length, bytesSent);
+
+        waitForClientStates(TransmissionControlBlock.State.CLOSED);
+
+        bytesSent = clientSocket.write(buf, 0, buf.length);
+        assertEquals("Expected no data to be sent after the connection was aborted", -1, bytesSent);
+    }
+
     protected class ServerRunnable implements Runnable {
 
         @Override
@@ -0,0 +1,65 @@
+package nl.vu.cs.cn.transmission;
+
+import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class TestTransmitBorrow extends TestTransmitBase {
+
+    public void testBorrowRelease() throws Exception {
+        final byte[] expected = data[3];
+
+        Thread serverThread = startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+
+                byte[] buf = new byte[expected.length];
+                int bytesRead = 0;
+                boolean useRead = false;
+                while(bytesRead < buf.length){
+                    ByteBuffer borrowed = serverSocket.borrow(buf.length - bytesRead);
+                    assertTrue(borrowed.isReadOnly());
+                    assertTrue("Expected to borrow data", borrowed.hasRemaining());
+
+                    if(useRead){
+                        // the borrowed bytes are read again
+                        int len = serverSocket.read(buf, bytesRead, borrowed.remaining());
+                        assertEquals(borrowed.remaining(), len);
+                        assertEquals("Expected the loan to end after a read", 0, serverSocket.release(len));
+                        bytesRead += len;
+                    } else {
+                        // release half of the bytes, the others are borrowed again
+                        int len = (borrowed.remaining() + 1) / 2;
+                        borrowed.get(buf, bytesRead, len);
+                        assertEquals(len, serverSocket.release(len));
+                        assertEquals("Expected the loan to end after a release", 0, serverSocket.release(len));
+                        bytesRead += len;
+                    }
+                    useRead = !useRead;
+                }
+                assertTrue("Expected to receive exact same data", Arrays.equals(expected, buf));
+
+                // all data has been read once the other side closed the connection
+                waitForServerStates(TransmissionControlBlock.State.CLOSE_WAIT);
+                ByteBuffer borrowed = serverSocket.borrow(1);
+                assertNotNull(borrowed);
+                assertFalse(borrowed.hasRemaining());
+
+                serverSocket.close();
+            }
+        });
+
+        connect();
+
+        assertEquals(expected.length, clientSocket.write(expected, 0, expected.length));
+        clientSocket.close();
+        serverThread.join();
+    }
+
+    public void testBorrowNotConnected() throws Exception {
+        assertNull("Expected borrowing from an unconnected socket to fail", clientSocket.borrow(1));
+        assertEquals(0, clientSocket.release(1));
+    }
+}
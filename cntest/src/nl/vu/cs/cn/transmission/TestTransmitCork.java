@@ -0,0 +1,129 @@
+package nl.vu.cs.cn.transmission;
+
+import nl.vu.cs.cn.TestBase;
+import nl.vu.cs.cn.UnreliableIPStack;
+import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+import nl.vu.cs.cn.tcp.segment.Segment;
+
+import java.util.Arrays;
+
+public class TestTransmitCork extends TestBase {
+
+    private static final byte[] HEADER = "<image>".getBytes();
+    private static final byte[] LENGTH = {0, 0, 0, 100};
+    private static final byte[] PAYLOAD = new byte[100];
+
+    public void testCork() throws Exception {
+        Thread serverThread = startServer(new ServerRunnable(HEADER.length + LENGTH.length + PAYLOAD.length));
+        connect();
+
+        clientSocket.setTcpCork(true);
+        assertTrue(clientSocket.getTcpCork());
+
+        clientSocket.write(HEADER, 0, HEADER.length);
+        clientSocket.write(LENGTH, 0, LENGTH.length);
+        clientSocket.write(PAYLOAD, 0, PAYLOAD.length);
+
+        Thread.sleep(200);
+        assertEquals("Expected no segment to be sent while corked", 0, client.getOutgoingCount(UnreliableIPStack.Type.DATA));
+
+        clientSocket.setTcpCork(false);
+        waitUntilClientAcknowledged();
+        assertEquals("Expected all writes to be sent in a single segment", 1, client.getOutgoingCount(UnreliableIPStack.Type.DATA));
+
+        clientSocket.close();
+        serverThread.join();
+    }
+
+    public void testFlush() throws Exception {
+        Thread serverThread = startServer(new ServerRunnable(2 * HEADER.length));
+        connect();
+
+        clientSocket.setTcpCork(true);
+        clientSocket.write(HEADER, 0, HEADER.length);
+        clientSocket.flush();
+        waitUntilClientAcknowledged();
+        assertEquals(1, client.getOutgoingCount(UnreliableIPStack.Type.DATA));
+
+        // the socket stays corked after a flush
+        clientSocket.write(HEADER, 0, HEADER.length);
+        Thread.sleep(200);
+        assertEquals(1, client.getOutgoingCount(UnreliableIPStack.Type.DATA));
+
+        // close sends the remaining data before the FIN
+        clientSocket.close();
+        serverThread.join();
+        assertEquals(2, client.getOutgoingCount(UnreliableIPStack.Type.DATA));
+    }
+
+    public void testFullSegments() throws Exception {
+        int segmentSize = TransmissionControlBlock.MAX_SEGMENT_SIZE - Segment.HEADER_SIZE;
+        Thread serverThread = startServer(new ServerRunnable(2 * segmentSize + 1));
+        connect();
+
+        clientSocket.setTcpCork(true);
+        byte[] buf = new byte[2 * segmentSize + 1];
+        System.arraycopy(HEADER, 0, buf, 0, HEADER.length);
+        clientSocket.write(buf, 0, buf.length);
+
+        Thread.sleep(200);
+        assertEquals("Expected full segments to be sent while corked", 2, client.getOutgoingCount(UnreliableIPStack.Type.DATA));
+
+        clientSocket.setTcpCork(false);
+        waitUntilClientAcknowledged();
+        assertEquals(3, client.getOutgoingCount(UnreliableIPStack.Type.DATA));
+
+        clientSocket.close();
+        serverThread.join();
+    }
+
+    public void testFlushOnlyPushedData() throws Exception {
+        int segmentSize = TransmissionControlBlock.MAX_SEGMENT_SIZE - Segment.HEADER_SIZE;
+        byte[] buf = new byte[2 * segmentSize + 2 * Segment.HEADER_SIZE + HEADER.length];
+        System.arraycopy(HEADER, 0, buf, 0, HEADER.length);
+        Thread serverThread = startServer(new ServerRunnable(buf.length + HEADER.length));
+        connect();
+
+        // the full segments leave too little of the window for the flushed data, and the
+        // pacer delays its rest, so it is still queued when the next write is added after it
+        clientSocket.setPacingRate(50);
+        clientSocket.setTcpCork(true);
+        clientSocket.write(buf, 0, buf.length);
+        clientSocket.flush();
+        clientSocket.write(HEADER, 0, HEADER.length);
+
+        Thread.sleep(500);
+        int sent = client.getOutgoingCount(UnreliableIPStack.Type.DATA);
+
+        // close sends the data written after the flush, which was held back
+        clientSocket.close();
+        serverThread.join();
+        assertEquals("Expected the data written after the flush to wait for the close",
+                sent + 1, client.getOutgoingCount(UnreliableIPStack.Type.DATA));
+    }
+
+    private class ServerRunnable implements Runnable {
+
+        private final int bytesExpected;
+
+        private ServerRunnable(int bytesExpected){
+            this.bytesExpected = bytesExpected;
+        }
+
+        @Override
+        public void run() {
+            serverSocket.accept();
+
+            byte[] buf = new byte[bytesExpected];
+            int bytesRead = 0;
+            while(bytesRead < bytesExpected){
+                bytesRead += serverSocket.read(buf, bytesRead, bytesExpected - bytesRead);
+            }
+            byte[] header = new byte[HEADER.length];
+            System.arraycopy(buf, 0, header, 0, header.length);
+            assertTrue("Expected the header first", Arrays.equals(HEADER, header));
+
+            serverSocket.close();
+        }
+    }
+}
@@ -38,9 +38,7 @@ public class TestTransmitDataCorrupt extends TestTransmitBase {
 
         connect();
 
-        byte[] buf  = data[0];
-        int bytesSent = clientSocket.write(buf, 0, buf.length);
-        assertTrue("Expected no data to be sent", bytesSent == 0 || bytesSent == -1);
+        doUnacknowledgedTransmissionTest(data[0]);
 
         clientSocket.close();
     }
@@ -51,9 +49,7 @@ public class TestTransmitDataCorrupt extends TestTransmitBase {
 
         connect();
 
-        byte[] buf = data[0];
-        int bytesSent = clientSocket.write(buf, 0, buf.length);
-        assertTrue("Expected no data to be sent", bytesSent == 0 || bytesSent == -1);
+        doUnacknowledgedTransmissionTest(data[0]);
 
         clientSocket.close();
     }
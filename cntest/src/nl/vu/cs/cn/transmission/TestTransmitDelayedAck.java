@@ -0,0 +1,84 @@
+package nl.vu.cs.cn.transmission;
+
+import nl.vu.cs.cn.TestBase;
+import nl.vu.cs.cn.UnreliableIPStack;
+import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+import nl.vu.cs.cn.tcp.segment.Segment;
+
+import java.util.Arrays;
+
+public class TestTransmitDelayedAck extends TestBase {
+
+    private static final int NUM_SEGMENTS = 16;
+    private static final int SEGMENT_DATA_SIZE = TransmissionControlBlock.MAX_SEGMENT_SIZE - Segment.HEADER_SIZE;
+
+    private long ackTime;   // time between the last write and the last ACK in ms
+
+    public void testDelayedAck() throws Exception {
+        int acks = doTransmitTest(NUM_SEGMENTS * SEGMENT_DATA_SIZE);
+        assertTrue("Expected about one ACK per two segments, but sent " + acks + " ACKs",
+                acks <= NUM_SEGMENTS * 3 / 4);
+    }
+
+    public void testNoDelayedAck() throws Exception {
+        setServerDelayedAckTimeout(0);
+
+        int acks = doTransmitTest(NUM_SEGMENTS * SEGMENT_DATA_SIZE);
+        assertTrue("Expected an ACK for every segment, but sent " + acks + " ACKs", acks >= NUM_SEGMENTS);
+    }
+
+    public void testDelayedAckTimeout() throws Exception {
+        // a single segment is only ACKed once the timer expires
+        int acks = doTransmitTest(100);
+
+        assertEquals(1, acks);
+        assertTrue("Expected the ACK not to be delayed for longer than the timer, but took " + ackTime + " ms",
+                ackTime < 2 * TransmissionControlBlock.DEFAULT_DELAYED_ACK_TIMEOUT);
+        assertEquals("Expected the ACK to arrive before the segment is retransmitted",
+                1, client.getOutgoingCount(UnreliableIPStack.Type.DATA));
+    }
+
+    /**
+     * Send len bytes to the server, and wait until all of them have been acknowledged.
+     * @param len
+     * @return the number of ACKs sent by the server for the data
+     */
+    private int doTransmitTest(int len) throws Exception {
+        final byte[] expected = new byte[len];
+        for(int i=0; i<expected.length; i++){
+            expected[i] = (byte) i;
+        }
+
+        Thread serverThread = startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+
+                byte[] buf = new byte[expected.length];
+                int bytesRead = 0;
+                while(bytesRead < buf.length){
+                    bytesRead += serverSocket.read(buf, bytesRead, buf.length - bytesRead);
+                }
+                assertTrue("Expected to receive exact same data", Arrays.equals(expected, buf));
+
+                // the FIN of the server would ACK the data otherwise
+                waitForServerStates(TransmissionControlBlock.State.CLOSE_WAIT);
+                serverSocket.close();
+            }
+        });
+
+        connect();
+        int acksBefore = server.getOutgoingCount(UnreliableIPStack.Type.ACK);
+
+        assertEquals(expected.length, clientSocket.write(expected, 0, expected.length));
+        long start = System.currentTimeMillis();
+        waitUntilClientAcknowledged();
+        ackTime = System.currentTimeMillis() - start;
+        int acks = server.getOutgoingCount(UnreliableIPStack.Type.ACK) - acksBefore;
+
+        clientSocket.close();
+        serverThread.join();
+
+        return acks;
+    }
+}
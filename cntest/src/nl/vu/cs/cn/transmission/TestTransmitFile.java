@@ -0,0 +1,86 @@
+package nl.vu.cs.cn.transmission;
+
+import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestTransmitFile extends TestTransmitBase {
+
+    private static final int FILE_OFFSET = 10;
+
+    private File file;
+
+    public TestTransmitFile(){
+        super();
+
+        // larger than the send buffer, so the file is sent in multiple steps
+        byte[] content = new byte[TransmissionControlBlock.SEND_BUFFER_SIZE * 2 + FILE_OFFSET];
+        new Random().nextBytes(content);
+
+        data = new byte[1][];
+        data[0] = new byte[content.length - FILE_OFFSET];
+        System.arraycopy(content, FILE_OFFSET, data[0], 0, data[0].length);
+
+        try {
+            file = File.createTempFile("TestTransmitFile", null);
+            file.deleteOnExit();
+
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(content);
+            out.close();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void testSendFile() throws Exception {
+        startServer(new ServerRunnable());
+        connect();
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            // ask for more than there is, only the rest of the file should be sent
+            long bytesSent = clientSocket.sendFile(in.getChannel(), FILE_OFFSET, Long.MAX_VALUE);
+            assertEquals("Expected the file to be sent from the offset", data[0].length, bytesSent);
+            assertEquals("The channel position should not change", 0, in.getChannel().position());
+        } finally {
+            in.close();
+        }
+
+        clientSocket.close();
+    }
+
+    public void testSendFileClosed() throws Exception {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            assertEquals(-1, clientSocket.sendFile(in.getChannel(), 0, 1));
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testSendFileInvalidArguments() throws Exception {
+        startServer(new ServerRunnable());
+        connect();
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            assertEquals(-1, clientSocket.sendFile(in.getChannel(), -1, 1));
+            assertEquals(-1, clientSocket.sendFile(in.getChannel(), 0, -1));
+
+            // nothing is left to send past the end of the file
+            assertEquals(0, clientSocket.sendFile(in.getChannel(), in.length() + 1, 1));
+
+            long bytesSent = clientSocket.sendFile(in.getChannel(), FILE_OFFSET, Long.MAX_VALUE);
+            assertEquals("Expected the connection to be usable after invalid arguments", data[0].length, bytesSent);
+        } finally {
+            in.close();
+        }
+
+        clientSocket.close();
+    }
+}
@@ -0,0 +1,25 @@
+package nl.vu.cs.cn.transmission;
+
+import java.nio.ByteBuffer;
+
+public class TestTransmitGather extends TestTransmitBase {
+
+    public void testGatheringWrite() throws Exception {
+        startServer(new ServerRunnable());
+        connect();
+
+        // every message is written as a heap header buffer and a direct payload buffer
+        for(byte[] buf : data){
+            ByteBuffer header = ByteBuffer.wrap(buf, 0, buf.length / 2);
+            ByteBuffer payload = ByteBuffer.allocateDirect(buf.length - buf.length / 2);
+            payload.put(buf, buf.length / 2, payload.capacity()).flip();
+
+            int bytesSent = clientSocket.write(new ByteBuffer[]{ header, payload });
+            assertEquals("Expected all data to be sent", buf.length, bytesSent);
+            assertFalse(header.hasRemaining());
+            assertFalse(payload.hasRemaining());
+        }
+
+        clientSocket.close();
+    }
+}
@@ -1,7 +1,10 @@
 package nl.vu.cs.cn.transmission;
 
+import nl.vu.cs.cn.UnreliableIPStack;
 import nl.vu.cs.cn.tcp.TransmissionControlBlock;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
 /**
@@ -25,5 +28,70 @@ public class TestTransmitLargeData extends TestTransmitBase {
     public void testTransmit() throws Exception {
         doNormalTransmissionTest();
     }
-}
 
+    public void testDropFirstDataOutgoing() throws Exception {
+        // the following segments in the window arrive out of order, and should be reassembled
+        client.dropOutgoing(UnreliableIPStack.Type.DATA, 1);
+        doNormalTransmissionTest();
+    }
+
+    public void testFastRetransmit() throws Exception {
+        // the three segments after the dropped one each cause a duplicate ACK, so the
+        // dropped segment should be resent before any retransmission timer expires
+        client.dropOutgoing(UnreliableIPStack.Type.DATA, 1);
+
+        startServer(new ServerRunnable());
+        connect();
+
+        int bytesSent = clientSocket.write(data[0], 0, data[0].length);
+        assertEquals("Expected all data to be sent", data[0].length, bytesSent);
+        waitUntilClientAcknowledged();
+
+        List<Long> seqs = client.getOutgoingDataSeqs();
+        assertEquals("Expected no retransmission timeout", 0, getClientRetransmissionTimeouts());
+        assertEquals("Expected the lost segment to be resent once", 2, Collections.frequency(seqs, seqs.get(0)));
+
+        clientSocket.close();
+    }
+
+    public void testTimeoutResendsOldestSegment() throws Exception {
+        // drop the duplicate ACK of the second segment, so the loss of the first one can
+        // only be detected by the retransmission timer
+        client.dropOutgoing(UnreliableIPStack.Type.DATA, 1);
+
+        startServer(new ServerRunnable());
+        connect();
+        client.dropIncoming(UnreliableIPStack.Type.ACK, 1);
+
+        int bytesSent = clientSocket.write(data[0], 0, data[0].length);
+        assertEquals("Expected all data to be sent", data[0].length, bytesSent);
+        waitUntilClientAcknowledged();
+
+        // only the oldest unacknowledged segment is resent when the timer expires
+        List<Long> seqs = client.getOutgoingDataSeqs();
+        assertTrue("Expected the lost segment to be resent", Collections.frequency(seqs, seqs.get(0)) > 1);
+        assertEquals("Expected the second segment to be sent once", 1, Collections.frequency(seqs, seqs.get(1)));
+
+        clientSocket.close();
+    }
+
+    public void testTimeoutResendsWindow() throws Exception {
+        // the whole initial window is lost, so no duplicate ACKs arrive at all
+        client.dropOutgoing(UnreliableIPStack.Type.DATA, 2);
+
+        startServer(new ServerRunnable());
+        connect();
+
+        int bytesSent = clientSocket.write(data[0], 0, data[0].length);
+        assertEquals("Expected all data to be sent", data[0].length, bytesSent);
+        waitUntilClientAcknowledged();
+
+        // the timer resends the first segment, the ACK of it opens the congestion window
+        // for the second one, which should not need a timeout of its own
+        List<Long> seqs = client.getOutgoingDataSeqs();
+        assertEquals("Expected the second segment to be resent once", 2, Collections.frequency(seqs, seqs.get(1)));
+        assertEquals("Expected a single retransmission timeout", 1, getClientRetransmissionTimeouts());
+
+        clientSocket.close();
+    }
+}
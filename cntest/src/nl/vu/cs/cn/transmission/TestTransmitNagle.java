@@ -0,0 +1,70 @@
+package nl.vu.cs.cn.transmission;
+
+import nl.vu.cs.cn.TestBase;
+import nl.vu.cs.cn.UnreliableIPStack;
+
+import java.util.Arrays;
+
+public class TestTransmitNagle extends TestBase {
+
+    private static final int NUM_WRITES = 100;
+    private static final int WRITE_SIZE = 10;
+
+    public void testNagle() throws Exception {
+        // delay the ACKs, so the writes are done while the first segment is in flight
+        server.delay(50);
+
+        int segments = doSmallWritesTest();
+        assertTrue("Expected small writes to be collected, but sent " + segments + " segments",
+                segments < NUM_WRITES / 10);
+    }
+
+    public void testNoDelay() throws Exception {
+        clientSocket.setTcpNoDelay(true);
+        assertTrue(clientSocket.getTcpNoDelay());
+
+        int segments = doSmallWritesTest();
+        assertEquals("Expected every write to be sent in its own segment", NUM_WRITES, segments);
+    }
+
+    /**
+     * Write NUM_WRITES small messages, and check that all of them arrive.
+     * @return the number of data segments sent by the client
+     */
+    private int doSmallWritesTest() throws Exception {
+        final byte[] expected = new byte[NUM_WRITES * WRITE_SIZE];
+        for(int i=0; i<expected.length; i++){
+            expected[i] = (byte) i;
+        }
+
+        Thread serverThread = startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+
+                byte[] buf = new byte[expected.length];
+                int bytesRead = 0;
+                while(bytesRead < buf.length){
+                    bytesRead += serverSocket.read(buf, bytesRead, buf.length - bytesRead);
+                }
+                assertTrue("Expected to receive exact same data", Arrays.equals(expected, buf));
+
+                serverSocket.close();
+            }
+        });
+
+        connect();
+
+        for(int i=0; i<NUM_WRITES; i++){
+            assertEquals(WRITE_SIZE, clientSocket.write(expected, i * WRITE_SIZE, WRITE_SIZE));
+        }
+
+        waitUntilClientAcknowledged();
+        int segments = client.getOutgoingCount(UnreliableIPStack.Type.DATA);
+
+        clientSocket.close();
+        serverThread.join();
+
+        return segments;
+    }
+}
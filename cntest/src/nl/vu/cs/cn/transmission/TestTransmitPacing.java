@@ -0,0 +1,43 @@
+package nl.vu.cs.cn.transmission;
+
+import nl.vu.cs.cn.tcp.Pacer;
+import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+
+import java.util.Random;
+
+public class TestTransmitPacing extends TestTransmitBase {
+
+    private static final int PACING_RATE = 200 * 1024;     // bytes/s
+
+    public TestTransmitPacing(){
+        super();
+
+        data = new byte[1][];
+        data[0] = new byte[TransmissionControlBlock.MAX_SEGMENT_SIZE * 8];
+        new Random().nextBytes(data[0]);
+    }
+
+    public void testPacingRate() throws Exception {
+        startServer(new ServerRunnable());
+        connect();
+
+        clientSocket.setPacingRate(PACING_RATE);
+
+        long start = System.currentTimeMillis();
+        assertEquals(data[0].length, clientSocket.write(data[0], 0, data[0].length));
+        waitUntilClientAcknowledged();
+        long elapsed = System.currentTimeMillis() - start;
+
+        // the first two segments are sent right away, the others at the pacing rate
+        long expected = 1000L * (data[0].length - 2 * TransmissionControlBlock.MAX_SEGMENT_SIZE) / PACING_RATE;
+        assertTrue("Expected the data to be paced over at least " + expected + " ms, took " + elapsed + " ms",
+                elapsed >= expected * 9 / 10);
+
+        Pacer pacer = getClientPacer();
+        assertEquals(PACING_RATE, pacer.getRate());
+        assertTrue("Expected segments to be delayed", pacer.getDelayedSegments() > 0);
+        assertTrue(pacer.getDelayTime() > 0);
+
+        clientSocket.close();
+    }
+}
@@ -0,0 +1,74 @@
+package nl.vu.cs.cn.transmission;
+
+import nl.vu.cs.cn.TestBase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestTransmitReadable extends TestBase {
+
+    private static final int NUM_WRITES = 4;
+    private static final int WRITE_SIZE = 1000;
+    private static final int WRITE_INTERVAL = 100;      // time between writes in ms
+
+    public void testReceiveLowWatermark() throws Exception {
+        final AtomicInteger firstRead = new AtomicInteger();
+        Thread serverThread = startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+                serverSocket.setReceiveLowWatermark(NUM_WRITES * WRITE_SIZE);
+
+                byte[] buf = new byte[2 * NUM_WRITES * WRITE_SIZE];
+                firstRead.set(serverSocket.read(buf, 0, buf.length));
+
+                serverSocket.close();
+            }
+        });
+
+        connect();
+        clientSocket.setTcpNoDelay(true);
+
+        // every write arrives in a segment of its own
+        byte[] buf = new byte[WRITE_SIZE];
+        for(int i=0; i<NUM_WRITES; i++){
+            Thread.sleep(WRITE_INTERVAL);
+            assertEquals(WRITE_SIZE, clientSocket.write(buf, 0, buf.length));
+        }
+
+        clientSocket.close();
+        serverThread.join();
+
+        assertEquals("Expected the reader to wake up once the low-water mark is reached",
+                NUM_WRITES * WRITE_SIZE, firstRead.get());
+    }
+
+    public void testWokenUpOnFin() throws Exception {
+        final AtomicInteger firstRead = new AtomicInteger();
+        final AtomicInteger secondRead = new AtomicInteger();
+        Thread serverThread = startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+                serverSocket.setReceiveLowWatermark(NUM_WRITES * WRITE_SIZE);
+                assertEquals(NUM_WRITES * WRITE_SIZE, serverSocket.getReceiveLowWatermark());
+
+                byte[] buf = new byte[NUM_WRITES * WRITE_SIZE];
+                firstRead.set(serverSocket.read(buf, 0, buf.length));
+                secondRead.set(serverSocket.read(buf, 0, buf.length));
+
+                serverSocket.close();
+            }
+        });
+
+        connect();
+
+        byte[] buf = new byte[WRITE_SIZE];
+        assertEquals(WRITE_SIZE, clientSocket.write(buf, 0, buf.length));
+
+        clientSocket.close();
+        serverThread.join();
+
+        assertEquals("Expected the reader to wake up when the FIN arrives", WRITE_SIZE, firstRead.get());
+        assertEquals("Expected no more data after the FIN", 0, secondRead.get());
+    }
+}
@@ -0,0 +1,63 @@
+package nl.vu.cs.cn.transmission;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+public class TestTransmitScatter extends TestTransmitBase {
+
+    public void testScatteringRead() throws Exception {
+        final CountDownLatch acknowledged = new CountDownLatch(1);
+
+        Thread serverThread = startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+
+                try {
+                    acknowledged.await();
+                } catch (InterruptedException e) {
+                    fail("Interrupted while waiting for the data");
+                }
+
+                // every message is read as a heap header buffer and a direct body buffer
+                for(byte[] expected : data){
+                    ByteBuffer header = ByteBuffer.allocate(4);
+                    ByteBuffer body = ByteBuffer.allocateDirect(expected.length);
+
+                    assertEquals("Expected a message that has arrived to be read in one call",
+                            header.capacity() + body.capacity(), serverSocket.read(new ByteBuffer[]{ header, body }));
+                    assertFalse(header.hasRemaining());
+                    assertFalse(body.hasRemaining());
+
+                    header.flip();
+                    assertEquals(expected.length, header.getInt());
+
+                    byte[] buf = new byte[expected.length];
+                    body.flip();
+                    body.get(buf);
+                    assertTrue("Expected to receive exact same data", Arrays.equals(expected, buf));
+                }
+
+                serverSocket.close();
+            }
+        });
+
+        connect();
+
+        // every message is prefixed with its length
+        for(byte[] buf : data){
+            ByteBuffer header = ByteBuffer.allocate(4);
+            header.putInt(buf.length).flip();
+
+            int bytesSent = clientSocket.write(new ByteBuffer[]{ header, ByteBuffer.wrap(buf) });
+            assertEquals("Expected all data to be sent", 4 + buf.length, bytesSent);
+        }
+
+        waitUntilClientAcknowledged();
+        acknowledged.countDown();
+
+        clientSocket.close();
+        serverThread.join();
+    }
+}
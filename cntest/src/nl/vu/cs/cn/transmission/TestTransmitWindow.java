@@ -0,0 +1,187 @@
+package nl.vu.cs.cn.transmission;
+
+import nl.vu.cs.cn.TestBase;
+import nl.vu.cs.cn.UnreliableIPStack;
+import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+import nl.vu.cs.cn.tcp.WriteFuture;
+import nl.vu.cs.cn.tcp.segment.Segment;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestTransmitWindow extends TestBase {
+
+    private static final int SEGMENT_DATA_SIZE = TransmissionControlBlock.MAX_SEGMENT_SIZE - Segment.HEADER_SIZE;
+
+    public void testAdvertisedWindow() throws Exception {
+        startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+            }
+        });
+        connect();
+
+        assertEquals("Expected the empty receive buffer of the server to be advertised",
+                Math.min(TransmissionControlBlock.MAX_WINDOW, TransmissionControlBlock.RECEIVE_BUFFER_SIZE),
+                getClientSendWindow());
+    }
+
+    public void testSlowReader() throws Exception {
+        // twice the size of the receive buffer, so the sender has to wait for the reader
+        final byte[] expected = new byte[2 * TransmissionControlBlock.RECEIVE_BUFFER_SIZE];
+        for(int i=0; i<expected.length; i++){
+            expected[i] = (byte) i;
+        }
+
+        final CountDownLatch windowClosed = new CountDownLatch(1);
+        Thread serverThread = startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+
+                try {
+                    // don't read until the receive buffer is full
+                    assertTrue("Expected the window to close", windowClosed.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    fail("Interrupted while waiting for the window to close");
+                }
+
+                byte[] buf = new byte[expected.length];
+                int bytesRead = 0;
+                while(bytesRead < buf.length){
+                    bytesRead += serverSocket.read(buf, bytesRead, Math.min(1024, buf.length - bytesRead));
+                }
+                assertTrue("Expected to receive exact same data", Arrays.equals(expected, buf));
+
+                serverSocket.close();
+            }
+        });
+
+        connect();
+        int bytesWritten = clientSocket.writeAsync(expected, 0, expected.length).getLength();
+
+        long end = System.currentTimeMillis() + 10000;
+        while(getClientSendWindow() > 0 && System.currentTimeMillis() < end){
+            Thread.sleep(10);
+        }
+        assertEquals("Expected the server to close its window", 0, getClientSendWindow());
+        windowClosed.countDown();
+
+        while(bytesWritten < expected.length){
+            bytesWritten += clientSocket.write(expected, bytesWritten, expected.length - bytesWritten);
+        }
+        waitUntilClientAcknowledged();
+
+        // data that does not fit in the receive buffer is not sent, so it is not retransmitted either
+        int segments = client.getOutgoingCount(UnreliableIPStack.Type.DATA);
+        int expectedSegments = expected.length / SEGMENT_DATA_SIZE + 1;
+        assertTrue("Expected about " + expectedSegments + " data segments, but sent " + segments,
+                segments <= expectedSegments * 3 / 2);
+
+        clientSocket.close();
+        serverThread.join();
+    }
+
+    public void testWindowGrows() throws Exception {
+        final byte[] expected = new byte[16 * TransmissionControlBlock.RECEIVE_BUFFER_SIZE];
+        for(int i=0; i<expected.length; i++){
+            expected[i] = (byte) i;
+        }
+
+        Thread serverThread = startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+
+                byte[] buf = new byte[expected.length];
+                int bytesRead = 0;
+                while(bytesRead < buf.length){
+                    bytesRead += serverSocket.read(buf, bytesRead, buf.length - bytesRead);
+                }
+                assertTrue("Expected to receive exact same data", Arrays.equals(expected, buf));
+
+                serverSocket.close();
+            }
+        });
+
+        // the server only measures the round-trip time of its SYN-ACK, make it longer than
+        // the time it takes to read the initial receive buffer
+        client.delay(100);
+        connect();
+        client.delay(0);
+        WriteFuture future = clientSocket.writeAsync(expected, 0, expected.length);
+
+        // the receive buffer of the server grows with the rate at which it reads
+        int maxWindow = 0;
+        long end = System.currentTimeMillis() + 30000;
+        while(!future.isDone() && System.currentTimeMillis() < end){
+            maxWindow = Math.max(maxWindow, getClientSendWindow());
+            Thread.sleep(1);
+        }
+        int bytesWritten = future.getLength();
+        while(bytesWritten < expected.length){
+            maxWindow = Math.max(maxWindow, getClientSendWindow());
+            bytesWritten += clientSocket.write(expected, bytesWritten, expected.length - bytesWritten);
+        }
+        waitUntilClientAcknowledged();
+        maxWindow = Math.max(maxWindow, getClientSendWindow());
+
+        assertTrue("Expected the advertised window to grow beyond the initial receive buffer, but it was at most " + maxWindow,
+                maxWindow > TransmissionControlBlock.RECEIVE_BUFFER_SIZE);
+        assertTrue("Expected the advertised window to fit in a segment", maxWindow <= TransmissionControlBlock.MAX_WINDOW);
+
+        clientSocket.close();
+        serverThread.join();
+    }
+
+    public void testAckOnZeroWindowProbe() throws Exception {
+        final byte[] data = new byte[2 * TransmissionControlBlock.RECEIVE_BUFFER_SIZE];
+        final byte[] reply = {1, 2, 3};
+
+        final CountDownLatch windowClosed = new CountDownLatch(1);
+        final AtomicInteger replyAcknowledged = new AtomicInteger(-1);
+        Thread serverThread = startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+
+                try {
+                    // don't read, so the window of the server stays closed
+                    if(windowClosed.await(10, TimeUnit.SECONDS)){
+                        WriteFuture future = serverSocket.writeAsync(reply, 0, reply.length);
+                        replyAcknowledged.set(future.await(10, TimeUnit.SECONDS) ? 1 : 0);
+                    }
+                } catch (InterruptedException e) {
+                    fail("Interrupted while waiting for the reply to be acknowledged");
+                }
+            }
+        });
+
+        connect();
+        clientSocket.writeAsync(data, 0, data.length);
+
+        long end = System.currentTimeMillis() + 10000;
+        while(getClientSendWindow() > 0 && System.currentTimeMillis() < end){
+            Thread.sleep(10);
+        }
+        assertEquals("Expected the server to close its window", 0, getClientSendWindow());
+
+        // the reply is only ACKed by a probe that carries data, and the server has no room for it
+        client.dropOutgoing(UnreliableIPStack.Type.ACK);
+        windowClosed.countDown();
+
+        byte[] buf = new byte[reply.length];
+        int bytesRead = 0;
+        while(bytesRead < buf.length){
+            bytesRead += clientSocket.read(buf, bytesRead, buf.length - bytesRead);
+        }
+        sendClientSegment(new byte[]{42});
+        serverThread.join();
+
+        assertEquals("Expected the ACK of an in-sequence segment to be processed when the window is zero",
+                1, replyAcknowledged.get());
+    }
+}
@@ -0,0 +1,90 @@
+package nl.vu.cs.cn.transmission;
+
+import nl.vu.cs.cn.TestBase;
+import nl.vu.cs.cn.UnreliableIPStack;
+import nl.vu.cs.cn.tcp.OnWritableListener;
+import nl.vu.cs.cn.tcp.TransmissionControlBlock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestTransmitWritable extends TestBase {
+
+    private static final int LOW_WATERMARK = TransmissionControlBlock.SEND_BUFFER_SIZE / 2;
+
+    public void testAwaitWritable() throws Exception {
+        final byte[] buf = new byte[TransmissionControlBlock.SEND_BUFFER_SIZE];
+        Thread serverThread = startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+
+                byte[] received = new byte[buf.length];
+                int bytesRead = 0;
+                while(bytesRead < received.length){
+                    bytesRead += serverSocket.read(received, bytesRead, received.length - bytesRead);
+                }
+
+                serverSocket.close();
+            }
+        });
+
+        connect();
+        clientSocket.setSendLowWatermark(LOW_WATERMARK);
+        assertEquals(LOW_WATERMARK, clientSocket.getSendLowWatermark());
+        assertTrue("Expected an empty send buffer to be writable", clientSocket.awaitWritable(0, TimeUnit.MILLISECONDS) > 0);
+
+        // fill the send buffer, only a window of it can be sent right away
+        assertEquals(buf.length, clientSocket.writeAsync(buf, 0, buf.length).getLength());
+
+        final AtomicInteger space = new AtomicInteger();
+        final CountDownLatch writable = new CountDownLatch(1);
+        clientSocket.setOnWritableListener(new OnWritableListener() {
+            @Override
+            public void onWritable(int bytes) {
+                space.set(bytes);
+                writable.countDown();
+            }
+        });
+
+        assertTrue("Expected the socket to become writable", clientSocket.awaitWritable(10, TimeUnit.SECONDS) >= LOW_WATERMARK);
+        assertTrue("Expected the listener to be called", writable.await(10, TimeUnit.SECONDS));
+        assertTrue("Expected at least the low-water mark to be free, but was " + space.get(), space.get() >= LOW_WATERMARK);
+
+        clientSocket.close();
+        serverThread.join();
+    }
+
+    public void testNotWritableUntilAbort() throws Exception {
+        client.dropOutgoing(UnreliableIPStack.Type.DATA);
+        startServer(new Runnable() {
+            @Override
+            public void run() {
+                serverSocket.accept();
+            }
+        });
+        connect();
+
+        // nothing is acknowledged, so the data that is not sent stays in the send buffer
+        byte[] buf = new byte[TransmissionControlBlock.SEND_BUFFER_SIZE];
+        clientSocket.setSendLowWatermark(buf.length);
+        clientSocket.writeAsync(buf, 0, buf.length);
+        assertEquals("Expected the send buffer not to be writable", 0, clientSocket.awaitWritable(100, TimeUnit.MILLISECONDS));
+
+        final AtomicInteger space = new AtomicInteger();
+        final CountDownLatch writable = new CountDownLatch(1);
+        clientSocket.setOnWritableListener(new OnWritableListener() {
+            @Override
+            public void onWritable(int bytes) {
+                space.set(bytes);
+                writable.countDown();
+            }
+        });
+        assertEquals("The listener should wait until the socket is writable", 1, writable.getCount());
+
+        assertEquals("Expected writes to fail once retransmissions are exhausted", -1, clientSocket.awaitWritable(60, TimeUnit.SECONDS));
+        assertTrue(writable.await(1, TimeUnit.SECONDS));
+        assertEquals(-1, space.get());
+    }
+}
@@ -36,4 +36,14 @@ public class TestComparison extends TestCase {
         assertFalse(SegmentUtil.inWindow(max, 11, 10));
         assertFalse(SegmentUtil.inWindow(max, max-1, 10));
     }
+
+    public void testIsAcked() throws Exception {
+        int max = Integer.MAX_VALUE;
+        assertTrue(SegmentUtil.isAcked(100, 110, 10));
+        assertTrue(SegmentUtil.isAcked(100, 200, 10));
+        assertFalse(SegmentUtil.isAcked(100, 109, 10));
+        assertFalse("Segment after the ack should not be acked", SegmentUtil.isAcked(200, 100, 10));
+        assertTrue(SegmentUtil.isAcked(max-5, 5, 10));
+        assertFalse(SegmentUtil.isAcked(max-5, 4, 10));
+    }
 }
@@ -0,0 +1,82 @@
+package nl.vu.cs.cn.window;
+
+import junit.framework.TestCase;
+
+import nl.vu.cs.cn.tcp.CongestionControl;
+import nl.vu.cs.cn.tcp.NewRenoCongestionControl;
+
+public class TestCongestionControl extends TestCase {
+
+    private static final int MSS = 1460;
+
+    public void testSlowStart() throws Exception {
+        CongestionControl cc = new NewRenoCongestionControl(MSS);
+        assertEquals(3 * MSS, cc.getCongestionWindow());
+
+        // every ACK of a full segment grows the window by one segment
+        for(int i=0; i<3; i++){
+            cc.onAck(MSS);
+        }
+        assertEquals(6 * MSS, cc.getCongestionWindow());
+
+        // but never by more than one segment per ACK
+        cc.onAck(4 * MSS);
+        assertEquals(7 * MSS, cc.getCongestionWindow());
+    }
+
+    public void testCongestionAvoidance() throws Exception {
+        CongestionControl cc = new NewRenoCongestionControl(MSS);
+        cc.onRetransmissionTimeout(8 * MSS);
+        assertEquals(4 * MSS, cc.getSlowStartThreshold());
+
+        // slow start up to ssthresh
+        for(int i=0; i<3; i++){
+            cc.onAck(MSS);
+        }
+        assertEquals(4 * MSS, cc.getCongestionWindow());
+
+        // one segment per window of acked data
+        for(int i=0; i<3; i++){
+            cc.onAck(MSS);
+        }
+        assertEquals(4 * MSS, cc.getCongestionWindow());
+        cc.onAck(MSS);
+        assertEquals(5 * MSS, cc.getCongestionWindow());
+    }
+
+    public void testFastRecovery() throws Exception {
+        CongestionControl cc = new NewRenoCongestionControl(MSS);
+
+        cc.onLoss(10 * MSS);
+        assertEquals(5 * MSS, cc.getSlowStartThreshold());
+        assertEquals(8 * MSS, cc.getCongestionWindow());
+
+        cc.onDuplicateAck();
+        assertEquals(9 * MSS, cc.getCongestionWindow());
+
+        // deflate by the acked data, add back one segment
+        cc.onPartialAck(2 * MSS);
+        assertEquals(8 * MSS, cc.getCongestionWindow());
+
+        cc.onRecovery();
+        assertEquals(5 * MSS, cc.getCongestionWindow());
+    }
+
+    public void testTimeout() throws Exception {
+        CongestionControl cc = new NewRenoCongestionControl(MSS);
+
+        cc.onRetransmissionTimeout(MSS);
+        assertEquals("ssthresh should be at least two segments", 2 * MSS, cc.getSlowStartThreshold());
+        assertEquals(MSS, cc.getCongestionWindow());
+    }
+
+    public void testIdle() throws Exception {
+        CongestionControl cc = new NewRenoCongestionControl(MSS);
+        for(int i=0; i<10; i++){
+            cc.onAck(MSS);
+        }
+
+        cc.onIdle();
+        assertEquals("Window should restart at the initial window", 3 * MSS, cc.getCongestionWindow());
+    }
+}
@@ -0,0 +1,65 @@
+package nl.vu.cs.cn.window;
+
+import junit.framework.TestCase;
+
+import nl.vu.cs.cn.tcp.Pacer;
+
+public class TestPacer extends TestCase {
+
+    private static final int MSS = 1000;
+    private static final long MS = 1000000;     // ns per ms
+
+    public void testNotPacedWithoutRtt() throws Exception {
+        Pacer pacer = new Pacer(MSS);
+        pacer.update(10 * MSS, Integer.MAX_VALUE, -1, 0);
+
+        assertEquals(0, pacer.getRate());
+        for(int i=0; i<100; i++){
+            assertEquals(0, pacer.consume(MSS, 0));
+        }
+    }
+
+    public void testDerivedRate() throws Exception {
+        Pacer pacer = new Pacer(MSS);
+
+        // slow start: twice the window per round trip
+        pacer.update(10 * MSS, Integer.MAX_VALUE, 100, 0);
+        assertEquals(200 * 1000, pacer.getRate());
+
+        // congestion avoidance: 1.2 times the window per round trip
+        pacer.update(10 * MSS, 5 * MSS, 100, 0);
+        assertEquals(120 * 1000, pacer.getRate());
+    }
+
+    public void testTokenBucket() throws Exception {
+        Pacer pacer = new Pacer(MSS);
+        pacer.setConfiguredRate(100 * 1000);
+        long now = 1000 * MS;
+        pacer.update(10 * MSS, Integer.MAX_VALUE, 100, now);
+        assertEquals("A configured rate overrides the derived rate", 100 * 1000, pacer.getRate());
+
+        // the bucket allows a burst of two segments
+        assertEquals(0, pacer.consume(MSS, now));
+        assertEquals(0, pacer.consume(MSS, now));
+
+        // then one segment per 10 ms
+        assertEquals(10, pacer.consume(MSS, now));
+        assertEquals(5, pacer.consume(MSS, now + 5 * MS));
+        assertEquals(0, pacer.consume(MSS, now + 10 * MS));
+
+        assertEquals(2, pacer.getDelayedSegments());
+        assertEquals(15, pacer.getDelayTime());
+    }
+
+    public void testRefillFromStart() throws Exception {
+        Pacer pacer = new Pacer(MSS);
+        pacer.setConfiguredRate(100 * 1000);
+
+        // System.nanoTime() may be negative, tokens are only added from the start of pacing
+        long now = -1000 * MS;
+        pacer.update(10 * MSS, Integer.MAX_VALUE, 100, now);
+        assertEquals(0, pacer.consume(MSS, now));
+        assertEquals(0, pacer.consume(MSS, now));
+        assertEquals(10, pacer.consume(MSS, now));
+    }
+}
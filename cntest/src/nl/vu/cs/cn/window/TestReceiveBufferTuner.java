@@ -0,0 +1,71 @@
+package nl.vu.cs.cn.window;
+
+import junit.framework.TestCase;
+
+import nl.vu.cs.cn.tcp.ReceiveBufferTuner;
+
+public class TestReceiveBufferTuner extends TestCase {
+
+    private static final int MIN_SIZE = 1000;
+    private static final int MAX_SIZE = 10000;
+    private static final int RTT = 100;
+
+    public void testGrowWithDrainRate() throws Exception {
+        ReceiveBufferTuner tuner = new ReceiveBufferTuner(MIN_SIZE, MAX_SIZE);
+        long now = 1000;
+
+        // the first read starts the measurement
+        assertEquals(MIN_SIZE, tuner.onRead(500, now, RTT, MIN_SIZE));
+
+        // a round trip has not passed yet
+        assertEquals(MIN_SIZE, tuner.onRead(500, now + RTT / 2, RTT, MIN_SIZE));
+
+        // 1500 bytes were read in a round trip, so the buffer grows to twice that
+        assertEquals(3000, tuner.onRead(500, now + RTT, RTT, MIN_SIZE));
+
+        // a lower rate does not shrink the buffer
+        assertEquals(3000, tuner.onRead(100, now + 2 * RTT, RTT, 3000));
+
+        // but never grows beyond the maximum size
+        assertEquals(MAX_SIZE, tuner.onRead(20000, now + 3 * RTT, RTT, 3000));
+    }
+
+    public void testRatePerRoundTrip() throws Exception {
+        ReceiveBufferTuner tuner = new ReceiveBufferTuner(MIN_SIZE, MAX_SIZE);
+        long now = 1000;
+
+        // 2000 bytes read over four round trips are only 500 bytes per round trip
+        tuner.onRead(0, now, RTT, MIN_SIZE);
+        assertEquals(MIN_SIZE, tuner.onRead(2000, now + 4 * RTT, RTT, MIN_SIZE));
+
+        // 2000 bytes in a round trip are not
+        assertEquals(4000, tuner.onRead(2000, now + 5 * RTT, RTT, MIN_SIZE));
+    }
+
+    public void testNotTunedWithoutRtt() throws Exception {
+        ReceiveBufferTuner tuner = new ReceiveBufferTuner(MIN_SIZE, MAX_SIZE);
+
+        tuner.onRead(5000, 1000, -1, MIN_SIZE);
+        assertEquals(MIN_SIZE, tuner.onRead(5000, 2000, -1, MIN_SIZE));
+    }
+
+    public void testIdle() throws Exception {
+        ReceiveBufferTuner tuner = new ReceiveBufferTuner(MIN_SIZE, MAX_SIZE);
+        long now = 1000;
+
+        tuner.onRead(1000, now, RTT, MIN_SIZE);
+        assertEquals(4000, tuner.onRead(1000, now + RTT, RTT, MIN_SIZE));
+        assertEquals(ReceiveBufferTuner.IDLE_TIMEOUT_MS, tuner.getIdleDelay(now + RTT));
+
+        // received data postpones the idle timeout, until it has not been read for a while
+        tuner.onDataReceived(now + 2 * RTT);
+        assertEquals(ReceiveBufferTuner.IDLE_TIMEOUT_MS - RTT, tuner.getIdleDelay(now + 3 * RTT));
+        assertEquals(0, tuner.getIdleDelay(now + 2 * RTT + ReceiveBufferTuner.IDLE_TIMEOUT_MS));
+
+        // after shrinking, the rate is measured again
+        tuner.onShrink();
+        long later = now + 10 * ReceiveBufferTuner.IDLE_TIMEOUT_MS;
+        assertEquals(MIN_SIZE, tuner.onRead(1000, later, RTT, MIN_SIZE));
+        assertEquals(3000, tuner.onRead(500, later + RTT, RTT, MIN_SIZE));
+    }
+}